@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH results in CSV format ({@code -rf csv}) and reports every score
+ * which got worse by more than the threshold.
+ *
+ * Throughput (e.g. {@code ops/us}) is better when higher, times and allocations per operation
+ * (e.g. {@code us/op}, {@code B/op}) are better when lower, other metrics are listed without comparison.
+ *
+ * Usage: {@code BaselineComparison <baseline.csv> <current.csv> [threshold in percent, default 10]}
+ */
+public final class BaselineComparison {
+
+    private static final String BENCHMARK = "Benchmark";
+
+    private static final String SCORE = "Score";
+
+    private static final String UNIT = "Unit";
+
+    private static final String PARAM = "Param: ";
+
+    private BaselineComparison() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineComparison <baseline.csv> <current.csv> [threshold in percent]");
+            System.exit(2);
+        }
+        final Map<String, Result> baseline = read(Paths.get(args[0]));
+        final Map<String, Result> current = read(Paths.get(args[1]));
+        final double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        int regressions = 0;
+        for (final Map.Entry<String, Result> entry : current.entrySet()) {
+            final Result before = baseline.get(entry.getKey());
+            final Result after = entry.getValue();
+            if (before == null || !before.unit.equals(after.unit)) {
+                System.out.printf("%-100s %14.3f %-10s (no baseline)%n", entry.getKey(), after.score, after.unit);
+                continue;
+            }
+            final double change = (after.score - before.score) / before.score * 100;
+            final boolean regression;
+            if (after.unit.startsWith("ops/")) {
+                regression = change < -threshold;
+            } else if (after.unit.endsWith("/op")) {
+                regression = change > threshold;
+            } else {
+                regression = false;
+            }
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-100s %14.3f %14.3f %-10s %+8.1f%%%s%n", entry.getKey(), before.score, after.score, after.unit, change, regression ? "  REGRESSION" : "");
+        }
+        System.out.printf("%d regression(s) beyond %.1f%%%n", regressions, threshold);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    // results by benchmark name and parameters
+    private static Map<String, Result> read(final Path file) throws IOException {
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        final Map<String, Result> results = new LinkedHashMap<>();
+        if (lines.isEmpty()) {
+            return results;
+        }
+        final List<String> header = fields(lines.get(0));
+        final int benchmark = header.indexOf(BENCHMARK);
+        final int score = header.indexOf(SCORE);
+        final int unit = header.indexOf(UNIT);
+        if (benchmark == -1 || score == -1 || unit == -1) {
+            throw new IOException("not a JMH CSV result: " + file);
+        }
+        for (final String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            final List<String> fields = fields(line);
+            final StringBuilder key = new StringBuilder(fields.get(benchmark));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith(PARAM) && i < fields.size() && !fields.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring(PARAM.length())).append('=').append(fields.get(i));
+                }
+            }
+            results.put(key.toString(), new Result(Double.parseDouble(fields.get(score)), fields.get(unit)));
+        }
+        return results;
+    }
+
+    private static List<String> fields(final String line) {
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static final class Result {
+
+        private final double score;
+
+        private final String unit;
+
+        private Result(final double score, final String unit) {
+            this.score = score;
+            this.unit = unit;
+        }
+
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.HdrHistogram.Histogram;
+import org.apache.sling.commons.jcr.file.internal.BenchmarkEnvironment;
+
+/**
+ * Multi-threaded load generator, every thread works on a file system of its own created
+ * by {@code JcrFileSystemProvider.newFileSystem} and a directory of its own.
+ *
+ * Options (as {@code --name=value}):
+ * <ul>
+ * <li>{@code threads}: number of threads and file systems, default 8</li>
+ * <li>{@code duration}: measured seconds, default 60</li>
+ * <li>{@code warmup}: seconds before measuring, default 10</li>
+ * <li>{@code mix}: weights of the operations, default {@code stat=40,list=10,read=25,write=15,copy=5,delete=5}</li>
+ * <li>{@code rate}: operations per second over all threads in open-loop mode, 0 (default) for closed-loop mode</li>
+ * <li>{@code files}: files per thread, default 100</li>
+ * <li>{@code size}: bytes per file, default 4096</li>
+ * <li>{@code repository}: {@code memory} (default) or {@code segment} for a segment-tar store in a temporary directory</li>
+ * </ul>
+ */
+public final class LoadGenerator {
+
+    private static final String ROOT = "load";
+
+    private LoadGenerator() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = options(args);
+        final int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        final long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "60")));
+        final long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "10")));
+        final Map<Operation, Integer> mix = mix(options.getOrDefault("mix", "stat=40,list=10,read=25,write=15,copy=5,delete=5"));
+        final double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        final int files = Integer.parseInt(options.getOrDefault("files", "100"));
+        final int size = Integer.parseInt(options.getOrDefault("size", "4096"));
+        final String repository = options.getOrDefault("repository", "memory");
+
+        final Operation[] operations = mix.keySet().toArray(new Operation[0]);
+        final int[] cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+        final long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * threads / rate) : 0;
+        final byte[] payload = new byte[size];
+        ThreadLocalRandom.current().nextBytes(payload);
+
+        final Path segmentStore = "segment".equals(repository) ? Files.createTempDirectory("jcr-file-load-") : null;
+        System.out.printf("threads: %d, mix: %s, %s, repository: %s%n", threads, mix,
+            rate > 0 ? String.format(Locale.ROOT, "open loop at %.1f ops/s", rate) : "closed loop",
+            segmentStore == null ? "memory" : segmentStore);
+        try (BenchmarkEnvironment environment = new BenchmarkEnvironment(Collections.emptyMap(), segmentStore)) {
+            final Session session = environment.login();
+            try {
+                final Node root = session.getRootNode().addNode(ROOT, "nt:folder");
+                for (int i = 0; i < threads; i++) {
+                    root.addNode("worker-" + i, "nt:folder");
+                }
+                session.save();
+            } finally {
+                session.logout();
+            }
+            final CountDownLatch done = new CountDownLatch(threads);
+            final long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            final long measureStart = start + warmup;
+            final long end = measureStart + duration;
+            final List<LoadWorker> workers = new ArrayList<>();
+            try {
+                for (int i = 0; i < threads; i++) {
+                    final FileSystem fileSystem = environment.newFileSystem();
+                    final LoadWorker worker = new LoadWorker(fileSystem, fileSystem.getPath("/" + ROOT + "/worker-" + i), files, payload, operations, cumulativeWeights, intervalNanos, measureStart, end, done);
+                    worker.prepare();
+                    workers.add(worker);
+                }
+                if (System.nanoTime() > start) {
+                    System.out.println("preparing took longer than a second, warmup is shorter");
+                }
+                for (int i = 0; i < workers.size(); i++) {
+                    final Thread thread = new Thread(workers.get(i), "load-worker-" + i);
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                done.await();
+                report(workers, mix.keySet(), duration);
+            } finally {
+                for (final LoadWorker worker : workers) {
+                    worker.getFileSystem().close();
+                }
+            }
+        } finally {
+            if (segmentStore != null) {
+                delete(segmentStore);
+            }
+        }
+    }
+
+    private static void report(final List<LoadWorker> workers, final Iterable<Operation> operations, final long duration) {
+        final double seconds = duration / (double) TimeUnit.SECONDS.toNanos(1);
+        final Histogram all = new Histogram(TimeUnit.HOURS.toMicros(1), 3);
+        long allErrors = 0;
+        System.out.printf("%-8s %10s %8s %10s %10s %10s %10s %10s %12s%n", "op", "count", "errors", "p50 (ms)", "p99 (ms)", "p999 (ms)", "max (ms)", "mean (ms)", "ops/s");
+        for (final Operation operation : operations) {
+            final Histogram histogram = new Histogram(TimeUnit.HOURS.toMicros(1), 3);
+            long errors = 0;
+            for (final LoadWorker worker : workers) {
+                histogram.add(worker.getHistogram(operation));
+                errors += worker.getErrors(operation);
+            }
+            all.add(histogram);
+            allErrors += errors;
+            print(operation.name().toLowerCase(Locale.ROOT), histogram, errors, seconds);
+        }
+        print("total", all, allErrors, seconds);
+    }
+
+    private static void print(final String name, final Histogram histogram, final long errors, final double seconds) {
+        System.out.printf(Locale.ROOT, "%-8s %10d %8d %10.3f %10.3f %10.3f %10.3f %10.3f %12.1f%n", name, histogram.getTotalCount(), errors,
+            millis(histogram.getValueAtPercentile(50)), millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+            millis(histogram.getMaxValue()), histogram.getMean() / 1000, histogram.getTotalCount() / seconds);
+    }
+
+    private static double millis(final long micros) {
+        return micros / 1000.0;
+    }
+
+    private static Map<String, String> options(final String[] args) {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (final String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("option is not --name=value: " + arg);
+            }
+            final int separator = arg.indexOf('=');
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private static Map<Operation, Integer> mix(final String value) {
+        final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (final String entry : value.split(",")) {
+            final String[] pair = entry.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("mix entry is not operation=weight: " + entry);
+            }
+            final int weight = Integer.parseInt(pair[1].trim());
+            if (weight > 0) {
+                mix.put(Operation.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)), weight);
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("mix has no operation: " + value);
+        }
+        return mix;
+    }
+
+    private static void delete(final Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+        });
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.benchmarks;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * Drives a mix of operations on a file system of its own, recording the latency of every
+ * operation once the warmup is over.
+ *
+ * In open-loop mode operations are scheduled at a fixed interval and their latency is taken
+ * from the scheduled start, so a stalled operation is charged for every operation it delayed
+ * (no coordinated omission). In closed-loop mode the next operation starts when the previous one is done.
+ */
+class LoadWorker implements Runnable {
+
+    // one hour in microseconds, three significant digits
+    private static final long HIGHEST_TRACKABLE = TimeUnit.HOURS.toMicros(1);
+
+    private final FileSystem fileSystem;
+
+    private final Path directory;
+
+    private final int files;
+
+    private final byte[] payload;
+
+    private final Operation[] operations;
+
+    private final int[] cumulativeWeights;
+
+    private final long intervalNanos;
+
+    private final long measureStart;
+
+    private final long end;
+
+    private final CountDownLatch done;
+
+    private final Histogram[] histograms;
+
+    private final long[] errors;
+
+    private int sink;
+
+    LoadWorker(final FileSystem fileSystem, final Path directory, final int files, final byte[] payload, final Operation[] operations, final int[] cumulativeWeights, final long intervalNanos, final long measureStart, final long end, final CountDownLatch done) {
+        this.fileSystem = fileSystem;
+        this.directory = directory;
+        this.files = files;
+        this.payload = payload;
+        this.operations = operations;
+        this.cumulativeWeights = cumulativeWeights;
+        this.intervalNanos = intervalNanos;
+        this.measureStart = measureStart;
+        this.end = end;
+        this.done = done;
+        this.histograms = new Histogram[Operation.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram(HIGHEST_TRACKABLE, 3);
+        }
+        this.errors = new long[Operation.values().length];
+    }
+
+    /**
+     * Creates the files in the worker's directory.
+     */
+    void prepare() throws Exception {
+        for (int i = 0; i < files; i++) {
+            Files.write(file(i), payload);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            long scheduled = System.nanoTime();
+            while (true) {
+                final long start;
+                if (intervalNanos > 0) {
+                    scheduled += intervalNanos;
+                    long now;
+                    while ((now = System.nanoTime()) < scheduled) {
+                        LockSupport.parkNanos(scheduled - now);
+                    }
+                    start = scheduled;
+                } else {
+                    start = System.nanoTime();
+                }
+                if (start >= end) {
+                    break;
+                }
+                final Operation operation = nextOperation();
+                boolean failed = false;
+                try {
+                    operation.execute(this);
+                } catch (Exception e) {
+                    failed = true;
+                }
+                if (start >= measureStart) {
+                    final long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+                    histograms[operation.ordinal()].recordValue(Math.min(latency, HIGHEST_TRACKABLE));
+                    if (failed) {
+                        errors[operation.ordinal()]++;
+                    }
+                }
+            }
+        } finally {
+            done.countDown();
+        }
+    }
+
+    private Operation nextOperation() {
+        final int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (value < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    private Path file(final int index) {
+        return directory.resolve("file-" + index + ".bin");
+    }
+
+    Path randomFile() {
+        return file(ThreadLocalRandom.current().nextInt(files));
+    }
+
+    Path randomCopy() {
+        return directory.resolve("copy-" + ThreadLocalRandom.current().nextInt(files) + ".bin");
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    byte[] getPayload() {
+        return payload;
+    }
+
+    // keeps results alive without the cost of a blackhole
+    void consume(final Object object) {
+        sink += System.identityHashCode(object);
+    }
+
+    FileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    Histogram getHistogram(final Operation operation) {
+        return histograms[operation.ordinal()];
+    }
+
+    long getErrors(final Operation operation) {
+        return errors[operation.ordinal()];
+    }
+
+}
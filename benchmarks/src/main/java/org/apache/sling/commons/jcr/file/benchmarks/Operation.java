@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.benchmarks;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Operations of the load generator on the directory of a worker.
+ */
+enum Operation {
+
+    STAT {
+        @Override
+        void execute(final LoadWorker worker) throws Exception {
+            Files.readAttributes(worker.randomFile(), BasicFileAttributes.class);
+        }
+    },
+
+    LIST {
+        @Override
+        void execute(final LoadWorker worker) throws Exception {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(worker.getDirectory())) {
+                for (final Path path : stream) {
+                    worker.consume(path);
+                }
+            }
+        }
+    },
+
+    READ {
+        @Override
+        void execute(final LoadWorker worker) throws Exception {
+            worker.consume(Files.readAllBytes(worker.randomFile()));
+        }
+    },
+
+    WRITE {
+        @Override
+        void execute(final LoadWorker worker) throws Exception {
+            Files.write(worker.randomFile(), worker.getPayload());
+        }
+    },
+
+    COPY {
+        @Override
+        void execute(final LoadWorker worker) throws Exception {
+            Files.copy(worker.randomFile(), worker.randomCopy(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    },
+
+    DELETE {
+        @Override
+        void execute(final LoadWorker worker) throws Exception {
+            try {
+                Files.delete(worker.randomCopy());
+            } catch (NoSuchFileException e) {
+                // nothing copied there (yet), still a complete round trip
+            }
+        }
+    };
+
+    abstract void execute(LoadWorker worker) throws Exception;
+
+}
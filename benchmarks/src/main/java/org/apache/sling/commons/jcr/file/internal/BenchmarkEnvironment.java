@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.jackrabbit.api.JackrabbitRepository;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders;
+import org.apache.jackrabbit.oak.segment.file.FileStore;
+import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder;
+import org.apache.jackrabbit.oak.segment.file.InvalidFileStoreVersionException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Embedded in-memory or segment-tar Oak repository with the file system components wired
+ * the way Declarative Services would, without an OSGi container.
+ */
+public class BenchmarkEnvironment implements Closeable {
+
+    private final Repository repository;
+
+    private final FileStore fileStore;
+
+    private final NodeTypeClassifier nodeTypeClassifier;
+
+    private final SpoolFactory spoolFactory;
+
+    private final DefaultJcrFileSupportService jcrFileSupportService;
+
+    private final JcrFileSystemProvider fileSystemProvider;
+
+    public BenchmarkEnvironment() {
+        this(Collections.emptyMap());
+    }
+
+    public BenchmarkEnvironment(@NotNull final Map<String, Object> properties) {
+        this(properties, null);
+    }
+
+    /**
+     * @param properties configuration properties by attribute name, e.g. {@code attribute_cache_size},
+     *                   replacing the defaults of {@link DefaultJcrFileSupportServiceConfiguration}
+     * @param segmentStore directory of a segment-tar store or {@code null} for an in-memory repository
+     */
+    public BenchmarkEnvironment(@NotNull final Map<String, Object> properties, @Nullable final Path segmentStore) {
+        final DefaultJcrFileSupportServiceConfiguration configuration = configuration(properties);
+        if (segmentStore == null) {
+            fileStore = null;
+            repository = new Jcr().createRepository();
+        } else {
+            try {
+                fileStore = FileStoreBuilder.fileStoreBuilder(segmentStore.toFile()).build();
+            } catch (InvalidFileStoreVersionException | IOException e) {
+                throw new IllegalStateException(e);
+            }
+            repository = new Jcr(new Oak(SegmentNodeStoreBuilders.builder(fileStore).build())).createRepository();
+        }
+        nodeTypeClassifier = new NodeTypeClassifier();
+        nodeTypeClassifier.activate(configuration);
+        spoolFactory = new SpoolFactory();
+        spoolFactory.activate(configuration);
+        jcrFileSupportService = new DefaultJcrFileSupportService();
+        inject(jcrFileSupportService, "nodeTypeClassifier", nodeTypeClassifier);
+        jcrFileSupportService.activate(configuration);
+        fileSystemProvider = new JcrFileSystemProvider();
+        inject(fileSystemProvider, "jcrFileSupportService", jcrFileSupportService);
+        inject(fileSystemProvider, "spoolFactory", spoolFactory);
+        inject(fileSystemProvider, "nodeTypeClassifier", nodeTypeClassifier);
+        fileSystemProvider.activate(configuration);
+    }
+
+    private static DefaultJcrFileSupportServiceConfiguration configuration(final Map<String, Object> properties) {
+        return (DefaultJcrFileSupportServiceConfiguration) Proxy.newProxyInstance(
+            DefaultJcrFileSupportServiceConfiguration.class.getClassLoader(),
+            new Class<?>[]{DefaultJcrFileSupportServiceConfiguration.class},
+            (proxy, method, args) -> {
+                if (properties.containsKey(method.getName())) {
+                    return properties.get(method.getName());
+                }
+                if (method.getDefaultValue() != null) {
+                    return method.getDefaultValue();
+                }
+                if ("annotationType".equals(method.getName())) {
+                    return DefaultJcrFileSupportServiceConfiguration.class;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        );
+    }
+
+    private static void inject(final Object component, final String name, final Object reference) {
+        try {
+            final Field field = component.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(component, reference);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NotNull
+    public Session login() throws RepositoryException {
+        return repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
+    }
+
+    /**
+     * @return a new file system on a session of its own
+     */
+    @NotNull
+    public FileSystem newFileSystem() throws IOException, RepositoryException {
+        final Map<String, Object> env = new HashMap<>();
+        env.put(Session.class.getName(), login());
+        return fileSystemProvider.newFileSystem(URI.create(JcrFileSystemProvider.SCHEME + ":/"), env);
+    }
+
+    @NotNull
+    public JcrFileSystemProvider getFileSystemProvider() {
+        return fileSystemProvider;
+    }
+
+    @NotNull
+    public DefaultJcrFileSupportService getJcrFileSupportService() {
+        return jcrFileSupportService;
+    }
+
+    @Override
+    public void close() {
+        fileSystemProvider.deactivate();
+        jcrFileSupportService.deactivate();
+        if (repository instanceof JackrabbitRepository) {
+            ((JackrabbitRepository) repository).shutdown();
+        }
+        if (fileStore != null) {
+            fileStore.close();
+        }
+    }
+
+}
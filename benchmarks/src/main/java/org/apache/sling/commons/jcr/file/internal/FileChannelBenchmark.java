@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Session;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Sequential and random reads and writes through {@link JcrFileChannel}, every write
+ * invocation includes saving the content on close.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileChannelBenchmark {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int BLOCK_SIZE = 4 * 1024;
+
+    private static final int RANDOM_OPERATIONS = 64;
+
+    @Param({"4096", "1048576", "16777216"})
+    public int size;
+
+    private BenchmarkEnvironment environment;
+
+    private FileSystem fileSystem;
+
+    private Path file;
+
+    private ByteBuffer buffer;
+
+    private ByteBuffer block;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        final Session session = environment.login();
+        try {
+            session.getRootNode().addNode("benchmark", "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = environment.newFileSystem();
+        file = fileSystem.getPath("/benchmark/file.bin");
+        final byte[] content = new byte[size];
+        ThreadLocalRandom.current().nextBytes(content);
+        Files.write(file, content);
+        buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        block = ByteBuffer.allocate(BLOCK_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        environment.close();
+    }
+
+    @Benchmark
+    public long sequentialRead() throws Exception {
+        long total = 0;
+        try (SeekableByteChannel channel = Files.newByteChannel(file, READ)) {
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                total += read;
+                buffer.clear();
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long randomRead() throws Exception {
+        long total = 0;
+        try (SeekableByteChannel channel = Files.newByteChannel(file, READ)) {
+            for (int i = 0; i < RANDOM_OPERATIONS; i++) {
+                channel.position(randomPosition());
+                block.clear();
+                total += channel.read(block);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long sequentialWrite() throws Exception {
+        long total = 0;
+        try (SeekableByteChannel channel = Files.newByteChannel(file, WRITE, TRUNCATE_EXISTING)) {
+            while (total < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, size - total));
+                total += channel.write(buffer);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long randomWrite() throws Exception {
+        long total = 0;
+        try (SeekableByteChannel channel = Files.newByteChannel(file, READ, WRITE)) {
+            for (int i = 0; i < RANDOM_OPERATIONS; i++) {
+                channel.position(randomPosition());
+                block.clear();
+                total += channel.write(block);
+            }
+        }
+        return total;
+    }
+
+    private long randomPosition() {
+        return size <= BLOCK_SIZE ? 0 : ThreadLocalRandom.current().nextInt(size - BLOCK_SIZE);
+    }
+
+}
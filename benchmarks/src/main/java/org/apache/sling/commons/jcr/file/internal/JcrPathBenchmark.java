@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JcrPathBenchmark {
+
+    private BenchmarkEnvironment environment;
+
+    private FileSystem fileSystem;
+
+    private Path directory;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        environment = new BenchmarkEnvironment();
+        fileSystem = environment.newFileSystem();
+        directory = fileSystem.getPath("/content/starter");
+        file = fileSystem.getPath("/content/starter/img/sling-logo.png");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        environment.close();
+    }
+
+    @Benchmark
+    public Path getPath() {
+        return fileSystem.getPath("/content/starter/img/sling-logo.png");
+    }
+
+    @Benchmark
+    public Path getPathWithNames() {
+        return fileSystem.getPath("/content", "starter", "img", "sling-logo.png");
+    }
+
+    @Benchmark
+    public Path resolve() {
+        return directory.resolve("sling-logo.png");
+    }
+
+    @Benchmark
+    public Path relativize() {
+        return directory.relativize(file);
+    }
+
+    @Benchmark
+    public void names(final Blackhole blackhole) {
+        blackhole.consume(file.getFileName());
+        blackhole.consume(file.getParent());
+        blackhole.consume(file.getName(1));
+    }
+
+    @Benchmark
+    public boolean startsWith() {
+        return file.startsWith(directory);
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Progress of {@link JcrFileSupportService#deleteTree(java.nio.file.Path, DeleteProgressListener)},
+ * invoked after every save.
+ */
+@ConsumerType
+@FunctionalInterface
+public interface DeleteProgressListener {
+
+    /**
+     * @param deleted the number of nodes deleted and saved so far
+     * @param elapsed the time (in nanoseconds) since the delete started
+     */
+    void progress(final long deleted, final long elapsed);
+
+}
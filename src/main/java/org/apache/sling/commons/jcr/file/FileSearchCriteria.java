@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file;
+
+import java.nio.file.attribute.FileTime;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Immutable criteria for {@link JcrFileSupportService#search(java.nio.file.Path, FileSearchCriteria)},
+ * every criterion set narrows the result. Times are exclusive bounds, sizes inclusive ones.
+ */
+public final class FileSearchCriteria {
+
+    private final FileTime lastModifiedAfter;
+
+    private final FileTime lastModifiedBefore;
+
+    private final FileTime createdAfter;
+
+    private final FileTime createdBefore;
+
+    private final Long minSize;
+
+    private final Long maxSize;
+
+    private final String nodeType;
+
+    public FileSearchCriteria() {
+        this(null, null, null, null, null, null, null);
+    }
+
+    private FileSearchCriteria(final FileTime lastModifiedAfter, final FileTime lastModifiedBefore, final FileTime createdAfter, final FileTime createdBefore, final Long minSize, final Long maxSize, final String nodeType) {
+        this.lastModifiedAfter = lastModifiedAfter;
+        this.lastModifiedBefore = lastModifiedBefore;
+        this.createdAfter = createdAfter;
+        this.createdBefore = createdBefore;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.nodeType = nodeType;
+    }
+
+    @NotNull
+    public FileSearchCriteria lastModifiedAfter(@NotNull final FileTime time) {
+        return new FileSearchCriteria(time, lastModifiedBefore, createdAfter, createdBefore, minSize, maxSize, nodeType);
+    }
+
+    @NotNull
+    public FileSearchCriteria lastModifiedBefore(@NotNull final FileTime time) {
+        return new FileSearchCriteria(lastModifiedAfter, time, createdAfter, createdBefore, minSize, maxSize, nodeType);
+    }
+
+    @NotNull
+    public FileSearchCriteria createdAfter(@NotNull final FileTime time) {
+        return new FileSearchCriteria(lastModifiedAfter, lastModifiedBefore, time, createdBefore, minSize, maxSize, nodeType);
+    }
+
+    @NotNull
+    public FileSearchCriteria createdBefore(@NotNull final FileTime time) {
+        return new FileSearchCriteria(lastModifiedAfter, lastModifiedBefore, createdAfter, time, minSize, maxSize, nodeType);
+    }
+
+    @NotNull
+    public FileSearchCriteria minSize(final long size) {
+        return new FileSearchCriteria(lastModifiedAfter, lastModifiedBefore, createdAfter, createdBefore, size, maxSize, nodeType);
+    }
+
+    @NotNull
+    public FileSearchCriteria maxSize(final long size) {
+        return new FileSearchCriteria(lastModifiedAfter, lastModifiedBefore, createdAfter, createdBefore, minSize, size, nodeType);
+    }
+
+    /**
+     * @param nodeType the node type (including subtypes and mixins) of the files or directories
+     */
+    @NotNull
+    public FileSearchCriteria nodeType(@NotNull final String nodeType) {
+        return new FileSearchCriteria(lastModifiedAfter, lastModifiedBefore, createdAfter, createdBefore, minSize, maxSize, nodeType);
+    }
+
+    @Nullable
+    public FileTime getLastModifiedAfter() {
+        return lastModifiedAfter;
+    }
+
+    @Nullable
+    public FileTime getLastModifiedBefore() {
+        return lastModifiedBefore;
+    }
+
+    @Nullable
+    public FileTime getCreatedAfter() {
+        return createdAfter;
+    }
+
+    @Nullable
+    public FileTime getCreatedBefore() {
+        return createdBefore;
+    }
+
+    @Nullable
+    public Long getMinSize() {
+        return minSize;
+    }
+
+    @Nullable
+    public Long getMaxSize() {
+        return maxSize;
+    }
+
+    @Nullable
+    public String getNodeType() {
+        return nodeType;
+    }
+
+    @Override
+    public String toString() {
+        return "FileSearchCriteria{lastModifiedAfter=" + lastModifiedAfter + ", lastModifiedBefore=" + lastModifiedBefore
+            + ", createdAfter=" + createdAfter + ", createdBefore=" + createdBefore
+            + ", minSize=" + minSize + ", maxSize=" + maxSize + ", nodeType=" + nodeType + "}";
+    }
+
+}
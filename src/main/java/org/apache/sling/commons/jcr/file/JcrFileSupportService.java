@@ -19,13 +19,17 @@
 package org.apache.sling.commons.jcr.file;
 
 import java.io.IOException;
+import java.nio.file.CopyOption;
+import java.nio.file.FileSystem;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.stream.Stream;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.annotation.versioning.ProviderType;
 
 @ProviderType
@@ -41,4 +45,80 @@ public interface JcrFileSupportService {
     @NotNull
     Node newFile(@NotNull final Path path) throws RepositoryException;
 
+    /**
+     * Walks the files and directories below the given directory (including itself),
+     * each thread reading with its own session derived from the file system's session.
+     * Pending changes of the file system are committed first. The stream splits the tree for {@link Stream#parallel()} and has to be closed. If the
+     * user cannot impersonate itself the stream does not split and is read on the consuming thread.
+     */
+    @NotNull
+    Stream<Path> walk(@NotNull final Path start) throws IOException;
+
+    /**
+     * Walks the files and directories below the given directory (including itself)
+     * in parallel and returns when all of them have been visited. Pending changes of the
+     * file system are committed first.
+     */
+    void walk(@NotNull final Path start, @NotNull final JcrPathVisitor visitor) throws IOException;
+
+    /**
+     * Searches the files and directories below the given directory matching a
+     * {@code glob:} or {@code regex:} pattern (see {@link java.nio.file.FileSystem#getPathMatcher(String)})
+     * with a repository query. Absolute patterns (starting with {@code /}, or with groups or
+     * alternatives which all do) are matched against absolute paths, relative patterns against
+     * paths relative to the given directory. Transient changes are not found.
+     */
+    @NotNull
+    Stream<Path> search(@NotNull final Path start, @NotNull final String syntaxAndPattern) throws IOException;
+
+    /**
+     * Searches the files and directories below the given directory matching the criteria
+     * with a repository query. Results are read in pages as the stream is consumed and
+     * carry their attributes. Transient changes are not found.
+     */
+    @NotNull
+    Stream<Path> search(@NotNull final Path start, @NotNull final FileSearchCriteria criteria) throws IOException;
+
+    /**
+     * Copies a file or directory with its whole subtree inside the repository
+     * ({@link javax.jcr.Workspace#copy}), binaries are referenced instead of copied.
+     * Pending changes of both file systems are committed first, the copy is saved immediately.
+     * Supports {@link java.nio.file.StandardCopyOption#REPLACE_EXISTING}, attributes except the creation time are always kept.
+     * An existing target is replaced by a copy made next to it in one save, so it is left as it is when copying fails.
+     *
+     * @throws java.nio.file.ProviderMismatchException if the file systems are not of the same repository
+     */
+    void copyTree(@NotNull final Path source, @NotNull final Path target, @NotNull final CopyOption... options) throws IOException;
+
+    /**
+     * Creates a directory and all missing ancestors like {@link java.nio.file.Files#createDirectories},
+     * but resolves the deepest existing ancestor once and creates the missing chain in one operation.
+     * Known directories are cached per file system, so creating many files below the same
+     * directories does not look up the ancestors again.
+     */
+    void createDirectories(@NotNull final Path dir) throws IOException;
+
+    /**
+     * Deletes a file or directory with its whole subtree bottom-up, saving in batches so the
+     * transient space stays bounded. Small subtrees are removed at once. Pending changes of the
+     * file system are saved with the first batch.
+     *
+     * @param listener notified after every save, may be {@code null}
+     * @return the number of deleted nodes
+     */
+    long deleteTree(@NotNull final Path start, @Nullable final DeleteProgressListener listener) throws IOException;
+
+    /**
+     * Waits until the channels of a JCR file system closed so far are uploaded and sets their
+     * binaries on the calling thread, see {@link WriteBackListener}.
+     *
+     * @throws IOException if write-backs failed since the last flush
+     */
+    void flush(@NotNull final FileSystem fileSystem) throws IOException;
+
+    /**
+     * Flushes and saves the pending changes of a JCR file system, whatever its {@link SavePolicy}.
+     */
+    void commit(@NotNull final FileSystem fileSystem) throws IOException;
+
 }
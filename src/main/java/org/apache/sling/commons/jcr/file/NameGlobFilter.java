@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Directory stream filter accepting entries whose name matches one of the given
+ * JCR name globs (see {@code javax.jcr.Node#getNodes(String[])}), where {@code *}
+ * matches any sequence of characters.
+ *
+ * JCR file systems push this filter down into the repository instead of
+ * filtering all children, other file systems match the names of the entries.
+ */
+public final class NameGlobFilter implements DirectoryStream.Filter<Path> {
+
+    private final String[] globs;
+
+    /**
+     * @param globs the name globs, must not contain {@code |}
+     */
+    public NameGlobFilter(@NotNull final String... globs) {
+        for (final String glob : globs) {
+            if (glob.indexOf('|') != -1) {
+                throw new IllegalArgumentException("glob must not contain '|': " + glob);
+            }
+        }
+        this.globs = globs.clone();
+    }
+
+    @NotNull
+    public String[] getGlobs() {
+        return globs.clone();
+    }
+
+    @Override
+    public boolean accept(final Path entry) {
+        final Path fileName = entry.getFileName();
+        if (fileName == null) {
+            return false;
+        }
+        final String name = fileName.toString();
+        for (final String glob : globs) {
+            if (matches(glob.trim(), name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(final String glob, final String name) {
+        int g = 0;
+        int n = 0;
+        int star = -1;
+        int mark = 0;
+        while (n < name.length()) {
+            if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                mark = n;
+            } else if (g < glob.length() && glob.charAt(g) == name.charAt(n)) {
+                g++;
+                n++;
+            } else if (star != -1) {
+                g = star + 1;
+                n = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    @Override
+    public String toString() {
+        return "NameGlobFilter" + Arrays.toString(globs);
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file;
+
+/**
+ * When a file system saves the changes of its session, set per file system with the
+ * {@code newFileSystem} env key {@link #ENV_KEY} (as name or constant) or for all file systems
+ * through the configuration. Whatever the policy, {@link JcrFileSupportService#commit(java.nio.file.FileSystem)}
+ * and closing the file system save, and pending changes exceeding the configured transient
+ * limits are saved on the next write.
+ */
+public enum SavePolicy {
+
+    /**
+     * Saves when a written file is closed.
+     */
+    CLOSE,
+
+    /**
+     * Saves every {@link #ENV_OPERATIONS} written files.
+     */
+    OPERATIONS,
+
+    /**
+     * Saves when the written files add up to {@link #ENV_BYTES} bytes.
+     */
+    BYTES,
+
+    /**
+     * Saves on the first write {@link #ENV_INTERVAL} milliseconds after the oldest pending change.
+     */
+    INTERVAL,
+
+    /**
+     * Saves on commit and close only.
+     */
+    EXPLICIT;
+
+    public static final String ENV_KEY = "org.apache.sling.commons.jcr.file.SavePolicy";
+
+    public static final String ENV_OPERATIONS = "org.apache.sling.commons.jcr.file.SavePolicy.operations";
+
+    public static final String ENV_BYTES = "org.apache.sling.commons.jcr.file.SavePolicy.bytes";
+
+    public static final String ENV_INTERVAL = "org.apache.sling.commons.jcr.file.SavePolicy.interval";
+
+}
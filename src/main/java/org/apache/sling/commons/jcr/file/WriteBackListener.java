@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file;
+
+import java.io.IOException;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Callback of a file system writing back closed channels asynchronously, set with the
+ * {@code newFileSystem} env key {@link #ENV_KEY}. Invoked on the thread calling into the
+ * file system when the failed write-back is applied, not from the upload threads.
+ * Failures are also reported by {@link JcrFileSupportService#flush(java.nio.file.FileSystem)}.
+ */
+@ConsumerType
+@FunctionalInterface
+public interface WriteBackListener {
+
+    String ENV_KEY = "org.apache.sling.commons.jcr.file.WriteBackListener";
+
+    /**
+     * {@code newFileSystem} env key enabling ({@code true}) or disabling ({@code false})
+     * asynchronous write-back, overriding the configuration.
+     */
+    String ENV_WRITE_BACK = "org.apache.sling.commons.jcr.file.WriteBack";
+
+    void failed(@NotNull final String path, @NotNull final IOException exception);
+
+}
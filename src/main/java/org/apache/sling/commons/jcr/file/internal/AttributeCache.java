@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded LRU cache of {@link JcrFileAttributes} by path for a single {@link JcrFileSystem}.
+ *
+ * Entries are invalidated by observation events (which include changes saved by other
+ * sessions and cluster nodes), explicitly on local saves and after the TTL.
+ * The attributes of a file depend on its {@code jcr:content/jcr:data}, so a change also
+ * invalidates the two levels above it.
+ *
+ * Invalidations are numbered and the latest number is kept per invalidated path and subtree,
+ * so attributes read elsewhere (directory entry snapshots) can be checked against the
+ * invalidations of their own path. The record is bounded, attributes read before the
+ * invalidations dropped from it are considered invalidated.
+ */
+class AttributeCache implements EventListener {
+
+    private final int maxSize;
+
+    private final long ttl;
+
+    private final Map<String, CachedAttributes> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    // incremented on every invalidation
+    private final AtomicLong generation = new AtomicLong();
+
+    // latest invalidation by path and by subtree root, bounded
+    private final Map<String, Long> invalidations;
+
+    private final Map<String, Long> treeInvalidations;
+
+    // attributes read before this generation are invalidated, raised when invalidations are dropped
+    private long floor;
+
+    private final Logger logger = LoggerFactory.getLogger(AttributeCache.class);
+
+    /**
+     * @param maxSize the maximum number of entries, {@code 0} disables the cache
+     * @param ttl     the time to live of entries in milliseconds, {@code 0} keeps them until invalidated or evicted
+     */
+    AttributeCache(final int maxSize, final long ttl) {
+        this.maxSize = maxSize;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        this.entries = new LinkedHashMap<String, CachedAttributes>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedAttributes> eldest) {
+                return size() > AttributeCache.this.maxSize;
+            }
+
+        };
+        this.invalidations = new Invalidations();
+        this.treeInvalidations = new Invalidations();
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return the number of the latest invalidation, to check attributes read afterwards with
+     */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Checks attributes read at the given generation and time, whether caching is enabled or not:
+     * they are valid within the TTL unless the path was invalidated since. A disabled cache
+     * receives no observation events, changes of other sessions then only expire with the TTL,
+     * so without a TTL nothing is current.
+     */
+    boolean isCurrent(@NotNull final String path, final long generation, final long created) {
+        if (ttl <= 0 && !isEnabled()) {
+            return false;
+        }
+        if (ttl > 0 && System.nanoTime() - created >= ttl) {
+            return false;
+        }
+        synchronized (entries) {
+            return !isInvalidated(path, generation);
+        }
+    }
+
+    @Nullable
+    JcrFileAttributes get(@NotNull final String path) {
+        if (isEnabled()) {
+            synchronized (entries) {
+                final CachedAttributes entry = entries.get(path);
+                if (entry != null) {
+                    if (ttl <= 0 || System.nanoTime() - entry.created < ttl) {
+                        hits.incrementAndGet();
+                        return entry.attributes;
+                    }
+                    entries.remove(path);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the attributes unless the path was invalidated since the given generation.
+     */
+    void put(@NotNull final String path, @NotNull final JcrFileAttributes attributes, final long generation) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            if (!isInvalidated(path, generation)) {
+                entries.put(path, new CachedAttributes(attributes, System.nanoTime()));
+            }
+        }
+    }
+
+    /**
+     * Invalidates the entries of the path and the two levels above it.
+     */
+    void invalidate(@NotNull final String path) {
+        synchronized (entries) {
+            final long current = generation.incrementAndGet();
+            String parent = path;
+            for (int i = 0; i < 3 && parent != null; i++) {
+                entries.remove(parent);
+                invalidations.put(parent, current);
+                parent = PathUtil.getParent(parent);
+            }
+        }
+    }
+
+    /**
+     * Invalidates the entries of the path, the two levels above and everything below it.
+     */
+    void invalidateTree(@NotNull final String path) {
+        final String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (entries) {
+            invalidate(path);
+            treeInvalidations.put(path, generation.get());
+            final Iterator<String> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().startsWith(prefix)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onEvent(final EventIterator events) {
+        while (events.hasNext()) {
+            final Event event = events.nextEvent();
+            try {
+                final String path = event.getPath();
+                if (event.getType() == Event.NODE_REMOVED || event.getType() == Event.NODE_MOVED) {
+                    invalidateTree(path);
+                    final Object source = event.getInfo().get("srcAbsPath");
+                    if (source instanceof String) {
+                        invalidateTree((String) source);
+                    }
+                } else if (path != null) {
+                    invalidate(path);
+                }
+            } catch (RepositoryException e) {
+                // the event cannot be attributed, drop everything
+                logger.warn("invalidating attribute cache: {}", e.getMessage(), e);
+                clear();
+            }
+        }
+    }
+
+    void clear() {
+        synchronized (entries) {
+            floor = generation.incrementAndGet();
+            entries.clear();
+            invalidations.clear();
+            treeInvalidations.clear();
+        }
+    }
+
+    // whether the path, an ancestor's subtree or dropped invalidations were invalidated after the generation
+    private boolean isInvalidated(@NotNull final String path, final long generation) {
+        if (floor > generation || isAfter(invalidations.get(path), generation)) {
+            return true;
+        }
+        for (String current = path; current != null; current = PathUtil.getParent(current)) {
+            if (isAfter(treeInvalidations.get(current), generation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAfter(@Nullable final Long invalidated, final long generation) {
+        return invalidated != null && invalidated > generation;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private class Invalidations extends LinkedHashMap<String, Long> {
+
+        private static final int MAX_SIZE = 10000;
+
+        // keeps the entries ordered by generation, the eldest is the oldest invalidation
+        @Override
+        public Long put(final String path, final Long generation) {
+            final Long previous = super.remove(path);
+            super.put(path, generation);
+            return previous;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+            if (size() > MAX_SIZE) {
+                floor = Math.max(floor, eldest.getValue());
+                return true;
+            }
+            return false;
+        }
+
+    }
+
+    private static class CachedAttributes {
+
+        private final JcrFileAttributes attributes;
+
+        private final long created;
+
+        CachedAttributes(final JcrFileAttributes attributes, final long created) {
+            this.attributes = attributes;
+            this.created = created;
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import javax.jcr.Node;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Attributes of a directory entry, captured from the node the directory stream
+ * already holds so reading them does not resolve the path again.
+ *
+ * The attributes are read from the node on first use unless given already. A snapshot is only served
+ * while the attribute cache of its file system has seen no invalidation of its path and is within
+ * its TTL, see {@link AttributeCache#isCurrent(String, long, long)}.
+ */
+class AttributeSnapshot {
+
+    private final Node node;
+
+    private final NodeTypeClassifier.Classification classification;
+
+    private final long generation;
+
+    private final long created;
+
+    private JcrFileAttributes attributes;
+
+    AttributeSnapshot(@NotNull final Node node, @NotNull final NodeTypeClassifier.Classification classification, final long generation) {
+        this.node = node;
+        this.classification = classification;
+        this.generation = generation;
+        this.created = System.nanoTime();
+    }
+
+    AttributeSnapshot(@NotNull final JcrFileAttributes attributes, final long generation) {
+        this.node = null;
+        this.classification = null;
+        this.attributes = attributes;
+        this.generation = generation;
+        this.created = System.nanoTime();
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    long getCreated() {
+        return created;
+    }
+
+    @NotNull
+    synchronized JcrFileAttributes getAttributes() {
+        if (attributes == null) {
+            attributes = JcrFileAttributes.fromNode(node, classification);
+        }
+        return attributes;
+    }
+
+}
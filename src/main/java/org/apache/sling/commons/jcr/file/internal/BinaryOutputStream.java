@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.ValueFactory;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pipes written bytes through a bounded queue of chunks into
+ * {@link ValueFactory#createBinary(InputStream)}, which runs on a background thread with an
+ * uploader session (see {@link UploaderSessions}), so content never touches local disk and
+ * memory stays bounded by the queue.
+ *
+ * The binary is set as {@code jcr:content/jcr:data} and reported to the {@link SaveController} on close,
+ * both on the calling thread with the file system's session; only the binary creation runs in the background.
+ *
+ * The background thread waits for chunks in intervals and gives up once the stream was garbage
+ * collected without being closed, so an abandoned stream does not hold a thread and an uploader
+ * session for good.
+ */
+class BinaryOutputStream extends OutputStream {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final byte[] EOF = new byte[0];
+
+    private static final long POLL_INTERVAL = 100;
+
+    private final Node node;
+
+    private final BlockingQueue<byte[]> queue;
+
+    private final Future<Binary> future;
+
+    private final AttributeCache attributeCache;
+
+    private final SaveController saveController;
+
+    private byte[] chunk = new byte[CHUNK_SIZE];
+
+    private int count;
+
+    private boolean closed;
+
+    // a failed write leaves the content incomplete, it must not be committed on close
+    private boolean failed;
+
+    private final Logger logger = LoggerFactory.getLogger(BinaryOutputStream.class);
+
+    /**
+     * @param uploader the session creating the binary, returned to the uploaders when done
+     * @throws RejectedExecutionException if the executor has no thread available, the uploader is not returned then
+     */
+    BinaryOutputStream(@NotNull final Node node, @NotNull final Session uploader, @NotNull final UploaderSessions uploaders, @NotNull final ExecutorService executor, final int capacity, @NotNull final AttributeCache attributeCache, @NotNull final SaveController saveController) throws RepositoryException {
+        this.node = node;
+        this.attributeCache = attributeCache;
+        this.saveController = saveController;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        final ValueFactory valueFactory = uploader.getValueFactory();
+        // must not keep this stream reachable from the background thread
+        final InputStream inputStream = new QueueInputStream(queue, new WeakReference<>(this), node.getPath());
+        this.future = executor.submit(() -> {
+            try {
+                return valueFactory.createBinary(inputStream);
+            } finally {
+                uploaders.checkin(uploader);
+            }
+        });
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensureOpen();
+        if (count == chunk.length) {
+            flushChunk();
+        }
+        chunk[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(@NotNull final byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off > b.length - len) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        while (len > 0) {
+            if (count == chunk.length) {
+                flushChunk();
+            }
+            final int n = Math.min(len, chunk.length - count);
+            System.arraycopy(b, off, chunk, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (failed) {
+            future.cancel(true);
+            throw new IOException("stream failed, content of " + path() + " not written");
+        }
+        Binary binary = null;
+        try {
+            if (count > 0) {
+                flushChunk();
+            }
+            put(EOF);
+            binary = future.get();
+            node.getNode("jcr:content").setProperty("jcr:data", binary);
+            attributeCache.invalidate(node.getPath());
+            saveController.written(binary.getSize());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            logger.error("creating binary failed: {}", e.getCause().getMessage(), e.getCause());
+            throw new IOException(e.getCause());
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        } catch (IOException e) {
+            future.cancel(true);
+            throw e;
+        } finally {
+            if (binary != null) {
+                binary.dispose();
+            }
+            chunk = null;
+        }
+    }
+
+    private void flushChunk() throws IOException {
+        final byte[] full = count == chunk.length ? chunk : Arrays.copyOf(chunk, count);
+        put(full);
+        chunk = new byte[CHUNK_SIZE];
+        count = 0;
+    }
+
+    // waits for space in the queue, failing fast when the consumer is gone
+    private void put(final byte[] bytes) throws IOException {
+        try {
+            while (!queue.offer(bytes, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                if (future.isDone()) {
+                    failed = true;
+                    throw new IOException("binary creation ended before the stream was closed");
+                }
+            }
+        } catch (InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new InterruptedIOException();
+        }
+    }
+
+    private String path() {
+        try {
+            return node.getPath();
+        } catch (RepositoryException e) {
+            return node.toString();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    /**
+     * Consumer side of the pipe, runs on the background thread.
+     */
+    private static class QueueInputStream extends InputStream {
+
+        private final BlockingQueue<byte[]> queue;
+
+        private final Reference<BinaryOutputStream> owner;
+
+        private final String path;
+
+        private byte[] current;
+
+        private int position;
+
+        private final Logger logger = LoggerFactory.getLogger(BinaryOutputStream.class);
+
+        QueueInputStream(final BlockingQueue<byte[]> queue, final Reference<BinaryOutputStream> owner, final String path) {
+            this.queue = queue;
+            this.owner = owner;
+            this.path = path;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NotNull final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (current == EOF) {
+                return -1;
+            }
+            if (current == null || position == current.length) {
+                try {
+                    while ((current = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS)) == null) {
+                        // the stream was collected without being closed, no more chunks will come
+                        if (owner.get() == null && queue.isEmpty()) {
+                            logger.warn("output stream of {} was not closed, abandoning its binary", path);
+                            throw new IOException("output stream of " + path + " was not closed");
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                position = 0;
+                if (current == EOF) {
+                    return -1;
+                }
+            }
+            final int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+    }
+
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+import org.jetbrains.annotations.NotNull;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Reads from a JCR {@link Binary} without copying it anywhere first.
+ *
+ * Sequential reads are served from a single {@link Binary#getStream()} which
+ * is kept open (many implementations open a new stream and skip for every
+ * {@link Binary#read(byte[], long)}), random reads use {@link Binary#read(byte[], long)}.
+ *
+ * Operations which need a real file (memory mapping) materialize the binary once
+ * into a temporary file which is shared by all of them until the reader is closed.
+ */
+class BinaryReader {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    // forward gaps up to this size are skipped on the open stream instead of seeking
+    private static final long MAX_SKIP = 256 * 1024;
+
+    private final Binary binary;
+
+    private final long size;
+
+    private InputStream stream;
+
+    private long streamPosition;
+
+    private byte[] chunk;
+
+    private Path file;
+
+    private FileChannel fileChannel;
+
+    BinaryReader(@NotNull final Binary binary) throws RepositoryException {
+        this.binary = binary;
+        this.size = binary.getSize();
+    }
+
+    Binary getBinary() {
+        return binary;
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Reads bytes from the binary into the given buffer starting at the given position.
+     *
+     * @param dst        the buffer to read into
+     * @param position   the position in the binary
+     * @param sequential whether the read is part of a sequential scan and should use the stream
+     * @return the number of bytes read or {@code -1} if position is at or beyond the end
+     */
+    int read(@NotNull final ByteBuffer dst, final long position, final boolean sequential) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        final boolean useStream = sequential || (stream != null && position >= streamPosition && position - streamPosition <= MAX_SKIP);
+        int total = 0;
+        while (dst.hasRemaining() && position + total < size) {
+            final byte[] bytes = chunk(dst.remaining());
+            final int length = (int) Math.min(Math.min(bytes.length, dst.remaining()), size - position - total);
+            final int read;
+            if (useStream) {
+                read = readFromStream(bytes, length, position + total);
+            } else {
+                read = readFromBinary(bytes, length, position + total);
+            }
+            if (read <= 0) {
+                break;
+            }
+            dst.put(bytes, 0, read);
+            total += read;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    /**
+     * Transfers bytes from the binary into the given channel, using the materialized
+     * file when there is one and a pooled direct buffer for file and socket channels,
+     * which saves the copy into a temporary direct buffer on every write.
+     *
+     * @param position the position in the binary to start from
+     * @param count    the maximum number of bytes to transfer
+     * @param target   the channel to write to
+     * @param pool     the pool to take a direct buffer from
+     * @return the number of bytes transferred
+     */
+    long transferTo(final long position, final long count, @NotNull final WritableByteChannel target, @NotNull final DirectBufferPool pool) throws IOException {
+        if (position >= size) {
+            return 0;
+        }
+        if (fileChannel != null) {
+            return fileChannel.transferTo(position, count, target);
+        }
+        final ByteBuffer buffer = target instanceof FileChannel || target instanceof SocketChannel ? pool.acquire() : null;
+        if (buffer == null) {
+            return transferTo(position, count, target);
+        }
+        try {
+            return transferTo(position, count, target, buffer);
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Streams bytes from the binary into the given channel.
+     *
+     * @param position the position in the binary to start from
+     * @param count    the maximum number of bytes to transfer
+     * @param target   the channel to write to
+     * @return the number of bytes transferred
+     */
+    long transferTo(final long position, final long count, @NotNull final WritableByteChannel target) throws IOException {
+        if (position >= size) {
+            return 0;
+        }
+        final long end = count > size - position ? size : position + count;
+        return transferTo(position, count, target, ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, end - position)));
+    }
+
+    private long transferTo(final long position, final long count, final WritableByteChannel target, final ByteBuffer buffer) throws IOException {
+        final long end = count > size - position ? size : position + count;
+        long transferred = 0;
+        while (position + transferred < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position - transferred));
+            final int read = read(buffer, position + transferred, true);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                if (target.write(buffer) == 0) {
+                    // non-blocking target is full
+                    return transferred + buffer.position();
+                }
+            }
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    /**
+     * Copies the binary into a temporary file on first use.
+     *
+     * @param spoolFactory the factory creating the temporary file
+     * @return a channel on the materialized binary, open for reading and writing
+     * to allow private mappings, the content must not be modified
+     */
+    @NotNull
+    FileChannel materialize(@NotNull final SpoolFactory spoolFactory) throws IOException {
+        if (fileChannel == null) {
+            final Path file = spoolFactory.createFile();
+            final FileChannel fileChannel = FileChannel.open(file, READ, WRITE);
+            try {
+                long position = 0;
+                while (position < size) {
+                    final long transferred = fileChannel.transferFrom(new SequentialChannel(position), position, size - position);
+                    if (transferred <= 0) {
+                        throw new IOException("binary ended at " + position + " of " + size + " bytes");
+                    }
+                    position += transferred;
+                }
+            } catch (IOException e) {
+                fileChannel.close();
+                Files.deleteIfExists(file);
+                throw e;
+            }
+            this.file = file;
+            this.fileChannel = fileChannel;
+        }
+        return fileChannel;
+    }
+
+    /**
+     * Discards the stream and the materialized file and disposes the binary.
+     */
+    void close() {
+        closeStream();
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // existing mappings keep the file busy on some platforms
+                file.toFile().deleteOnExit();
+            }
+            fileChannel = null;
+        }
+        binary.dispose();
+    }
+
+    private byte[] chunk(final int wanted) {
+        final int length = Math.min(wanted, CHUNK_SIZE);
+        if (chunk == null || chunk.length < length) {
+            chunk = new byte[Math.max(length, 8192)];
+        }
+        return chunk;
+    }
+
+    private int readFromStream(final byte[] bytes, final int length, final long position) throws IOException {
+        if (stream == null || position < streamPosition || position - streamPosition > MAX_SKIP) {
+            openStream();
+        }
+        while (streamPosition < position) {
+            final long skipped = stream.skip(position - streamPosition);
+            if (skipped <= 0) {
+                if (stream.read() < 0) {
+                    return -1;
+                }
+                streamPosition++;
+            } else {
+                streamPosition += skipped;
+            }
+        }
+        final int read = stream.read(bytes, 0, length);
+        if (read > 0) {
+            streamPosition += read;
+        }
+        return read;
+    }
+
+    private int readFromBinary(final byte[] bytes, final int length, final long position) throws IOException {
+        try {
+            if (length == bytes.length) {
+                return binary.read(bytes, position);
+            }
+            // Binary#read fills up to b.length bytes, so use a right-sized array for the tail
+            final byte[] tail = new byte[length];
+            final int read = binary.read(tail, position);
+            if (read > 0) {
+                System.arraycopy(tail, 0, bytes, 0, read);
+            }
+            return read;
+        } catch (RepositoryException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void openStream() throws IOException {
+        closeStream();
+        try {
+            stream = binary.getStream();
+        } catch (RepositoryException e) {
+            throw new IOException(e);
+        }
+        streamPosition = 0;
+    }
+
+    /**
+     * Closes the stream but keeps the binary for later reads.
+     */
+    void closeStream() {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // ignore, the stream is discarded anyway
+            }
+            stream = null;
+        }
+    }
+
+    // sequential view of the binary from the given position on
+    private class SequentialChannel implements ReadableByteChannel {
+
+        private long position;
+
+        SequentialChannel(final long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read(final ByteBuffer dst) throws IOException {
+            final int read = BinaryReader.this.read(dst, position, true);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+}
@@ -18,23 +18,46 @@
  */
 package org.apache.sling.commons.jcr.file.internal;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.CopyOption;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.util.Calendar;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
-import javax.jcr.Property;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
+import org.apache.sling.commons.jcr.file.DeleteProgressListener;
+import org.apache.sling.commons.jcr.file.FileSearchCriteria;
 import org.apache.sling.commons.jcr.file.JcrFileSupportService;
+import org.apache.sling.commons.jcr.file.JcrPathVisitor;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.Constants;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.metatype.annotations.Designate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,8 +73,16 @@ import org.slf4j.LoggerFactory;
 )
 public class DefaultJcrFileSupportService implements JcrFileSupportService {
 
+    // name prefix of the copies replacing existing targets
+    private static final String COPY_PREFIX = "jcr-file-copy-";
+
     private DefaultJcrFileSupportServiceConfiguration configuration;
 
+    private volatile ForkJoinPool walkPool;
+
+    @Reference
+    private volatile NodeTypeClassifier nodeTypeClassifier;
+
     private final Logger logger = LoggerFactory.getLogger(DefaultJcrFileSupportService.class);
 
     public DefaultJcrFileSupportService() {
@@ -60,57 +91,53 @@ public class DefaultJcrFileSupportService implements JcrFileSupportService {
     @Activate
     public void activate(final DefaultJcrFileSupportServiceConfiguration configuration) {
         this.configuration = configuration;
+        this.walkPool = newWalkPool(configuration);
     }
 
     @Modified
     public void modified(final DefaultJcrFileSupportServiceConfiguration configuration) {
         this.configuration = configuration;
+        final ForkJoinPool walkPool = this.walkPool;
+        this.walkPool = newWalkPool(configuration);
+        // running walks complete on the old pool
+        walkPool.shutdown();
     }
 
     @Deactivate
     public void deactivate() {
         this.configuration = null;
+        walkPool.shutdownNow();
+    }
+
+    private static ForkJoinPool newWalkPool(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        final int parallelism = configuration.walk_parallelism() > 0 ? configuration.walk_parallelism() : Runtime.getRuntime().availableProcessors();
+        return new ForkJoinPool(parallelism);
     }
 
     public boolean isFile(@NotNull final Node node) throws RepositoryException {
-        for (final String type : configuration.file_node_types()) {
-            if (node.isNodeType(type)) {
-                return true;
-            }
-        }
-        return false;
+        return nodeTypeClassifier.isFile(node);
     }
 
     public boolean isDirectory(@NotNull final Node node) throws RepositoryException {
-        for (final String type : configuration.directory_node_types()) {
-            if (node.isNodeType(type)) {
-                return true;
-            }
-        }
-        return false;
+        return nodeTypeClassifier.isDirectory(node);
     }
 
     @NotNull
     public JcrFileAttributes fromPath(@NotNull final Path path) throws IOException {
         try {
             final JcrFileSystem fileSystem = (JcrFileSystem) path.getFileSystem();
-            final Session session = fileSystem.getSession();
-            final Node node = session.getNode(path.toString());
-            final FileTime lastModifiedTime = timeFromProperty(node, "jcr:lastModified");
-            final FileTime lastAccessTime = FileTime.fromMillis(0L);
-            final FileTime creationTime = timeFromProperty(node, "jcr:created");
-            final boolean isRegularFile = isFile(node);
-            final boolean isDirectory = isDirectory(node);
-            final boolean isSymbolicLink = false;
-            final boolean isOther = !isRegularFile && !isDirectory;
-            final long size;
-            if (isRegularFile) {
-                size = lengthOfFileContent(node);
-            } else {
-                size = 0;
+            final AttributeCache attributeCache = fileSystem.getAttributeCache();
+            final String key = path.toString();
+            final JcrFileAttributes cached = attributeCache.get(key);
+            if (cached != null) {
+                return cached;
             }
-            final JcrFileAttributes jcrFileAttributes = new JcrFileAttributes(lastModifiedTime, lastAccessTime, creationTime, isRegularFile, isDirectory, isSymbolicLink, isOther, size);
+            final long generation = attributeCache.generation();
+            final Session session = fileSystem.getSession();
+            final Node node = session.getNode(key);
+            final JcrFileAttributes jcrFileAttributes = JcrFileAttributes.fromNode(node, nodeTypeClassifier.classify(node));
             logger.info("from path {}: ", jcrFileAttributes);
+            attributeCache.put(key, jcrFileAttributes, generation);
             return jcrFileAttributes;
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -118,32 +145,281 @@ public class DefaultJcrFileSupportService implements JcrFileSupportService {
         }
     }
 
+    @Override
+    public void copyTree(@NotNull final Path source, @NotNull final Path target, @NotNull final CopyOption... options) throws IOException {
+        final JcrFileSystem sourceFileSystem = (JcrFileSystem) source.getFileSystem();
+        final JcrFileSystem targetFileSystem = (JcrFileSystem) target.getFileSystem();
+        if (targetFileSystem.isReadOnly()) {
+            throw new ReadOnlyFileSystemException();
+        }
+        boolean replace = false;
+        for (final CopyOption option : options) {
+            if (option == StandardCopyOption.REPLACE_EXISTING) {
+                replace = true;
+            } else if (option != StandardCopyOption.COPY_ATTRIBUTES && option != LinkOption.NOFOLLOW_LINKS) {
+                throw new UnsupportedOperationException("'" + option + "' not supported");
+            }
+        }
+        final Session sourceSession = sourceFileSystem.getSession();
+        final Session targetSession = targetFileSystem.getSession();
+        if (sourceSession.getRepository() != targetSession.getRepository()) {
+            throw new ProviderMismatchException("file systems of different repositories");
+        }
+        final String sourcePath = source.toAbsolutePath().toString();
+        final String targetPath = target.toAbsolutePath().toString();
+        if (targetPath.equals(sourcePath) || targetPath.startsWith(sourcePath.endsWith("/") ? sourcePath : sourcePath + "/")) {
+            throw new FileSystemException(sourcePath, targetPath, "cannot copy into itself");
+        }
+        // workspace operations see saved content only
+        commit(sourceFileSystem);
+        if (targetFileSystem != sourceFileSystem) {
+            commit(targetFileSystem);
+        }
+        try {
+            if (!sourceSession.nodeExists(sourcePath)) {
+                throw new NoSuchFileException(sourcePath);
+            }
+            if (targetSession.nodeExists(targetPath)) {
+                if (!replace) {
+                    throw new FileAlreadyExistsException(targetPath);
+                }
+                try {
+                    replaceWithCopy(sourceSession, sourcePath, targetFileSystem, targetPath);
+                } finally {
+                    targetFileSystem.getAttributeCache().invalidateTree(targetPath);
+                    targetFileSystem.getDirectoryCache().invalidateTree(targetPath);
+                }
+                return;
+            }
+            final String parentPath = target.toAbsolutePath().getParent().toString();
+            if (!targetSession.nodeExists(parentPath)) {
+                throw new NoSuchFileException(parentPath);
+            }
+            targetSession.getWorkspace().copy(sourceSession.getWorkspace().getName(), sourcePath, targetPath);
+            targetFileSystem.getAttributeCache().invalidateTree(targetPath);
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+    }
+
+    // copies next to the target first and swaps it in with one save, a failing copy leaves the target as it is
+    private void replaceWithCopy(final Session sourceSession, final String sourcePath, final JcrFileSystem targetFileSystem, final String targetPath) throws RepositoryException {
+        final Session session = targetFileSystem.getSession();
+        final Node target = session.getNode(targetPath);
+        final Node parent = target.getParent();
+        final String name = target.getName();
+        final String copyPath = (parent.getDepth() == 0 ? "" : parent.getPath()) + "/" + COPY_PREFIX + UUID.randomUUID();
+        session.getWorkspace().copy(sourceSession.getWorkspace().getName(), sourcePath, copyPath);
+        try {
+            // keeps the position of the target among its siblings
+            String next = null;
+            if (parent.getPrimaryNodeType().hasOrderableChildNodes()) {
+                final NodeIterator siblings = parent.getNodes();
+                while (siblings.hasNext()) {
+                    if (siblings.nextNode().isSame(target)) {
+                        next = siblings.hasNext() ? siblings.nextNode().getName() : null;
+                        break;
+                    }
+                }
+            }
+            target.remove();
+            session.move(copyPath, targetPath);
+            if (next != null && !next.equals(copyPath.substring(copyPath.lastIndexOf('/') + 1))) {
+                parent.orderBefore(name, next);
+            }
+            targetFileSystem.getSaveController().commit();
+        } catch (RepositoryException | RuntimeException e) {
+            try {
+                session.refresh(false);
+                if (session.nodeExists(copyPath)) {
+                    session.getNode(copyPath).remove();
+                    session.save();
+                }
+            } catch (RepositoryException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void createDirectories(@NotNull final Path dir) throws IOException {
+        ((JcrFileSystem) dir.getFileSystem()).provider().createDirectories(dir);
+    }
+
+    @Override
+    public long deleteTree(@NotNull final Path start, @Nullable final DeleteProgressListener listener) throws IOException {
+        final JcrFileSystem fileSystem = (JcrFileSystem) start.getFileSystem();
+        if (fileSystem.isReadOnly()) {
+            throw new ReadOnlyFileSystemException();
+        }
+        final String path = start.toAbsolutePath().toString();
+        final WriteBack writeBack = fileSystem.getWriteBack();
+        if (writeBack != null) {
+            writeBack.awaitTree(path);
+        }
+        try {
+            final Session session = fileSystem.getSession();
+            if (!session.nodeExists(path)) {
+                throw new NoSuchFileException(path);
+            }
+            final Node node = session.getNode(path);
+            if (node.getDepth() == 0) {
+                throw new FileSystemException(path, null, "root cannot be deleted");
+            }
+            final DefaultJcrFileSupportServiceConfiguration configuration = this.configuration;
+            final TreeDelete delete = new TreeDelete(fileSystem.getSaveController(), configuration.delete_batch_size(), configuration.delete_subtree_size(), listener);
+            try {
+                return delete.delete(node);
+            } finally {
+                fileSystem.getAttributeCache().invalidateTree(path);
+                fileSystem.getDirectoryCache().invalidateTree(path);
+            }
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void flush(@NotNull final FileSystem fileSystem) throws IOException {
+        if (!(fileSystem instanceof JcrFileSystem)) {
+            throw new ProviderMismatchException("not a JCR file system");
+        }
+        final WriteBack writeBack = ((JcrFileSystem) fileSystem).getWriteBack();
+        if (writeBack != null) {
+            writeBack.flush();
+        }
+    }
+
+    @Override
+    public void commit(@NotNull final FileSystem fileSystem) throws IOException {
+        flush(fileSystem);
+        if (fileSystem.isReadOnly()) {
+            return;
+        }
+        try {
+            ((JcrFileSystem) fileSystem).getSaveController().commit();
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+    }
+
     @Override
     public @NotNull Node newFile(@NotNull Path path) throws RepositoryException {
         final JcrFileSystem fileSystem = (JcrFileSystem) path.getFileSystem();
         final Session session = fileSystem.getSession();
         final Node parent = session.getNode(path.getParent().toString());
-        final Node file = parent.addNode(path.getFileName().toString(), "nt:file");
+        final Node file = parent.addNode(path.getFileName().toString(), configuration.file_node_type());
         final Node content = file.addNode("jcr:content", "nt:resource");
+        // empty until written, so saving the session before does not violate the mandatory jcr:data
+        final Binary binary = session.getValueFactory().createBinary(new ByteArrayInputStream(new byte[0]));
+        try {
+            content.setProperty("jcr:data", binary);
+        } finally {
+            binary.dispose();
+        }
         return file;
     }
 
-    private static FileTime timeFromProperty(final Node node, final String name) {
-        try {
-            final Property property = node.getProperty(name);
-            final Calendar date = property.getDate();
-            return FileTime.fromMillis(date.getTimeInMillis());
-        } catch (Exception e) {
-            return FileTime.fromMillis(0L);
+    @Override
+    @NotNull
+    public Stream<Path> walk(@NotNull final Path start) throws IOException {
+        final JcrFileSystem fileSystem = (JcrFileSystem) start.getFileSystem();
+        // the derived sessions see saved changes only
+        commit(fileSystem);
+        final long generation = fileSystem.getAttributeCache().generation();
+        return new ParallelWalk(fileSystem, nodeTypeClassifier).stream(start)
+            .map(entry -> new JcrPath(fileSystem, entry.path, new AttributeSnapshot(entry.attributes, generation)));
+    }
+
+    @Override
+    public void walk(@NotNull final Path start, @NotNull final JcrPathVisitor visitor) throws IOException {
+        final JcrFileSystem fileSystem = (JcrFileSystem) start.getFileSystem();
+        commit(fileSystem);
+        try (ParallelWalk walk = new ParallelWalk(fileSystem, nodeTypeClassifier);
+             Stream<ParallelWalk.Entry> entries = walk.stream(start)) {
+            final Consumer<ParallelWalk.Entry> action = entry -> {
+                try {
+                    visitor.visit(JcrPath.normalized(fileSystem, entry.path), entry.attributes);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            if (!walk.isParallel()) {
+                // reading with the file system's session, which must stay on the calling thread
+                entries.forEach(action);
+                return;
+            }
+            // a parallel stream started from within a fork/join pool runs on that pool
+            walkPool.submit(() -> entries.parallel().forEach(action)).get();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            logger.error(cause.getMessage(), cause);
+            throw new IOException(cause);
         }
     }
 
-    private long lengthOfFileContent(final Node node) {
-        try {
-            return node.getNode("jcr:content").getProperty("jcr:data").getLength();
-        } catch (Exception e) {
-            return -1L;
+    @Override
+    @NotNull
+    public Stream<Path> search(@NotNull final Path start, @NotNull final String syntaxAndPattern) throws IOException {
+        final JcrFileSystem fileSystem = (JcrFileSystem) start.getFileSystem();
+        final JcrPathMatcher matcher = JcrPathMatcher.compile(syntaxAndPattern);
+        final String root = start.toAbsolutePath().toString();
+        final String prefix = matcher.getPrefix();
+        final String base;
+        if (prefix == null || isAncestorOrSelf(prefix, root)) {
+            base = root;
+        } else if (isAncestorOrSelf(root, prefix)) {
+            // the pattern narrows the search further down
+            base = prefix;
+        } else {
+            return Stream.empty();
         }
+        final PathSearch search = new PathSearch(fileSystem, nodeTypeClassifier, base);
+        if (matcher.getNamePattern() != null) {
+            search.name(matcher.getNamePattern());
+        }
+        final int offset = "/".equals(root) ? 1 : root.length() + 1;
+        // node paths are normalized, so are their relative forms
+        return search.execute(path -> matcher.matches(JcrPath.normalized(fileSystem, prefix == null ? path.substring(offset) : path)));
+    }
+
+    @Override
+    @NotNull
+    public Stream<Path> search(@NotNull final Path start, @NotNull final FileSearchCriteria criteria) throws IOException {
+        final JcrFileSystem fileSystem = (JcrFileSystem) start.getFileSystem();
+        final PathSearch search = new PathSearch(fileSystem, nodeTypeClassifier, start.toAbsolutePath().toString()).criteria(criteria);
+        // the repository answers the constraints from its indexes, the attributes are verified again
+        return search.execute(path -> true, attributes -> matches(criteria, attributes));
+    }
+
+    private static boolean matches(final FileSearchCriteria criteria, final BasicFileAttributes attributes) {
+        return after(attributes.lastModifiedTime(), criteria.getLastModifiedAfter())
+            && after(criteria.getLastModifiedBefore(), attributes.lastModifiedTime())
+            && after(attributes.creationTime(), criteria.getCreatedAfter())
+            && after(criteria.getCreatedBefore(), attributes.creationTime())
+            && (criteria.getMinSize() == null || attributes.size() >= criteria.getMinSize())
+            && (criteria.getMaxSize() == null || attributes.size() <= criteria.getMaxSize());
+    }
+
+    // an unset bound always holds
+    private static boolean after(final FileTime time, final FileTime other) {
+        return time == null || other == null || time.compareTo(other) > 0;
+    }
+
+    private static boolean isAncestorOrSelf(final String ancestor, final String path) {
+        return "/".equals(ancestor) || path.equals(ancestor) || path.startsWith(ancestor + "/");
     }
 
 }
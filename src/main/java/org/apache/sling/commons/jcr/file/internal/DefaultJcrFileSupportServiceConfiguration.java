@@ -40,7 +40,7 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
     String file_node_type() default "nt:file";
 
     @AttributeDefinition(
-        name = "directory node typ",
+        name = "directory node type",
         description = "node type used for new directories"
     )
     String directory_node_type() default "nt:folder";
@@ -57,4 +57,166 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
     )
     String[] directory_node_types() default {"rep:root", "nt:folder", "sling:Folder"};
 
+    @AttributeDefinition(
+        name = "spool memory threshold",
+        description = "content up to this size (in bytes) is spooled into pooled direct buffers when written"
+    )
+    long spool_memory_threshold() default 65536L;
+
+    @AttributeDefinition(
+        name = "spool mapped threshold",
+        description = "content up to this size (in bytes) is spooled into memory-mapped files, larger content into plain temporary files"
+    )
+    long spool_mapped_threshold() default 16777216L;
+
+    @AttributeDefinition(
+        name = "spool directory",
+        description = "directory for spool files, the default temporary directory is used when empty"
+    )
+    String spool_directory() default "";
+
+    @AttributeDefinition(
+        name = "spool memory budget",
+        description = "total size (in bytes) of direct buffers used for spooling, content is spooled into files when exhausted"
+    )
+    long spool_memory_budget() default 67108864L;
+
+    @AttributeDefinition(
+        name = "transfer buffer size",
+        description = "size (in bytes) of the pooled direct buffers used to transfer binaries into file and socket channels"
+    )
+    int transfer_buffer_size() default 262144;
+
+    @AttributeDefinition(
+        name = "transfer buffer budget",
+        description = "total size (in bytes) of pooled transfer buffers, transfers fall back to heap buffers when exhausted"
+    )
+    long transfer_buffer_budget() default 16777216L;
+
+    @AttributeDefinition(
+        name = "output stream threads",
+        description = "maximum number of background threads creating binaries for output streams, output streams fall back to spooling channels when all are busy or when the file system's user may not impersonate itself (on Oak only admin by default)"
+    )
+    int output_stream_threads() default 8;
+
+    @AttributeDefinition(
+        name = "output stream pipe size",
+        description = "size (in bytes) of the pipe buffering an output stream while its binary is created"
+    )
+    int output_stream_pipe_size() default 1048576;
+
+    @AttributeDefinition(
+        name = "attribute cache size",
+        description = "maximum number of file attributes cached per file system, 0 disables the cache"
+    )
+    int attribute_cache_size() default 10000;
+
+    @AttributeDefinition(
+        name = "attribute cache TTL",
+        description = "time to live (in milliseconds) of cached file attributes and of the attributes carried by directory entries, 0 keeps them until invalidated through observation or evicted (with the cache disabled, entries are read again then)"
+    )
+    long attribute_cache_ttl() default 60000L;
+
+    @AttributeDefinition(
+        name = "directory cache size",
+        description = "maximum number of known directories cached per file system to speed up creating files and directories, 0 disables the cache"
+    )
+    int directory_cache_size() default 1000;
+
+    @AttributeDefinition(
+        name = "walk parallelism",
+        description = "number of threads (each with its own session) for parallel walks, 0 uses the number of available processors"
+    )
+    int walk_parallelism() default 0;
+
+    @AttributeDefinition(
+        name = "session pools",
+        description = "read-only file systems of service sessions for URIs (FileSystemProvider#getFileSystem(URI), Paths#get(URI)) as authority=subServiceName, an empty authority stands for URIs without one"
+    )
+    String[] session_pools() default {};
+
+    @AttributeDefinition(
+        name = "session pool size",
+        description = "maximum number of sessions per pool"
+    )
+    int session_pool_size() default 8;
+
+    @AttributeDefinition(
+        name = "session pool idle timeout",
+        description = "time (in milliseconds) after which an idle pooled session is logged out"
+    )
+    long session_pool_idle_timeout() default 300000L;
+
+    @AttributeDefinition(
+        name = "session pool max wait",
+        description = "maximum time (in milliseconds) to wait for a pooled session when all are in use"
+    )
+    long session_pool_max_wait() default 5000L;
+
+    @AttributeDefinition(
+        name = "save policy",
+        description = "when file systems save their session: CLOSE (each written file), OPERATIONS, BYTES, INTERVAL or EXPLICIT (commit and close only), overridden per file system through the newFileSystem env"
+    )
+    String save_policy() default "CLOSE";
+
+    @AttributeDefinition(
+        name = "save operations",
+        description = "number of written files after which the OPERATIONS policy saves"
+    )
+    long save_operations() default 1000L;
+
+    @AttributeDefinition(
+        name = "save bytes",
+        description = "number of written bytes after which the BYTES policy saves"
+    )
+    long save_bytes() default 67108864L;
+
+    @AttributeDefinition(
+        name = "save interval",
+        description = "time (in milliseconds) after the oldest pending change from which the INTERVAL policy saves on the next write"
+    )
+    long save_interval() default 1000L;
+
+    @AttributeDefinition(
+        name = "save transient operations",
+        description = "maximum number of pending written files, reaching it saves whatever the policy"
+    )
+    long save_transient_operations() default 10000L;
+
+    @AttributeDefinition(
+        name = "save transient bytes",
+        description = "maximum number of pending written bytes, reaching it saves whatever the policy"
+    )
+    long save_transient_bytes() default 268435456L;
+
+    @AttributeDefinition(
+        name = "write back",
+        description = "upload the content of closed channels into the repository in the background, overridden per file system through the newFileSystem env"
+    )
+    boolean write_back() default false;
+
+    @AttributeDefinition(
+        name = "write back threads",
+        description = "number of background threads uploading closed channels"
+    )
+    int write_back_threads() default 2;
+
+    @AttributeDefinition(
+        name = "write back pending",
+        description = "maximum number of closed channels waiting to be uploaded, closing another one blocks until one is uploaded"
+    )
+    int write_back_pending() default 32;
+
+    @AttributeDefinition(
+        name = "delete batch size",
+        description = "number of nodes a recursive delete removes between saves"
+    )
+    int delete_batch_size() default 1000;
+
+    @AttributeDefinition(
+        name = "delete subtree size",
+        description = "maximum number of nodes of a subtree a recursive delete removes at once, 0 removes node by node"
+    )
+    int delete_subtree_size() default 100;
+
 }
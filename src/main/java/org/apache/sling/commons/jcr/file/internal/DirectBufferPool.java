@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Pool of equally sized direct buffers bounded by a total budget.
+ */
+class DirectBufferPool {
+
+    private final int bufferSize;
+
+    private final long budget;
+
+    private final AtomicLong allocated = new AtomicLong();
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+    DirectBufferPool(final int bufferSize, final long budget) {
+        this.bufferSize = bufferSize;
+        this.budget = budget;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer or {@code null} if the budget is exhausted
+     */
+    @Nullable
+    ByteBuffer acquire() {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            buffer.clear();
+            return buffer;
+        }
+        while (true) {
+            final long current = allocated.get();
+            if (current + bufferSize > budget) {
+                return null;
+            }
+            if (allocated.compareAndSet(current, current + bufferSize)) {
+                return ByteBuffer.allocateDirect(bufferSize);
+            }
+        }
+    }
+
+    void release(@NotNull final ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+
+    long getAllocated() {
+        return allocated.get();
+    }
+
+}
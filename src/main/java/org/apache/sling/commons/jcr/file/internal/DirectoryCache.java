@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Bounded LRU set of the paths of directories known to exist in a single {@link JcrFileSystem},
+ * so creating many files and directories below the same parents does not look up every
+ * ancestor again.
+ *
+ * Entries are invalidated explicitly on local (transient) removals and moves only. Changes of
+ * other sessions are not observed: entries are hints and must be verified with {@link #getNode},
+ * which drops entries whose node is gone or was replaced by a node of another primary type.
+ */
+class DirectoryCache {
+
+    private final int maxSize;
+
+    // path to primary node type
+    private final Map<String, String> paths;
+
+    /**
+     * @param maxSize the maximum number of paths, {@code 0} disables the cache
+     */
+    DirectoryCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.paths = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+                return size() > DirectoryCache.this.maxSize;
+            }
+
+        };
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Adds the path of a directory node.
+     */
+    void add(@NotNull final Node node) throws RepositoryException {
+        if (!isEnabled()) {
+            return;
+        }
+        final String path = node.getPath();
+        final String type = node.getPrimaryNodeType().getName();
+        synchronized (paths) {
+            paths.put(path, type);
+        }
+    }
+
+    /**
+     * @return the node of a known directory, {@code null} if the path is not known or no longer a directory of the cached type
+     */
+    @Nullable
+    Node getNode(@NotNull final Session session, @NotNull final String path) throws RepositoryException {
+        if (!isEnabled()) {
+            return null;
+        }
+        final String type;
+        synchronized (paths) {
+            type = paths.get(path);
+        }
+        if (type == null) {
+            return null;
+        }
+        try {
+            final Node node = session.getNode(path);
+            if (type.equals(node.getPrimaryNodeType().getName())) {
+                return node;
+            }
+        } catch (PathNotFoundException e) {
+            // removed by another session
+        }
+        invalidateTree(path);
+        return null;
+    }
+
+    /**
+     * Invalidates the path and everything below it.
+     */
+    void invalidateTree(@NotNull final String path) {
+        if (!isEnabled()) {
+            return;
+        }
+        final String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (paths) {
+            final Iterator<String> iterator = paths.keySet().iterator();
+            while (iterator.hasNext()) {
+                final String current = iterator.next();
+                if (current.equals(path) || current.startsWith(prefix)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    int size() {
+        synchronized (paths) {
+            return paths.size();
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Set of modified byte ranges, kept sorted and merged.
+ */
+class DirtyRanges {
+
+    // start (inclusive) -> end (exclusive)
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    void add(final long start, final long end) {
+        if (end <= start) {
+            return;
+        }
+        long from = start;
+        long to = end;
+        final Map.Entry<Long, Long> floor = ranges.floorEntry(from);
+        if (floor != null && floor.getValue() >= from) {
+            from = floor.getKey();
+            to = Math.max(to, floor.getValue());
+        }
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(from);
+        while (next != null && next.getKey() <= to) {
+            to = Math.max(to, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(from);
+        }
+        ranges.put(from, to);
+    }
+
+    boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    /**
+     * @return the ranges as start (inclusive) to end (exclusive) in ascending order
+     */
+    Iterable<Map.Entry<Long, Long>> ranges() {
+        return ranges.entrySet();
+    }
+
+    @Override
+    public String toString() {
+        return ranges.toString();
+    }
+
+}
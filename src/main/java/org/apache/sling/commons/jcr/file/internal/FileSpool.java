@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jetbrains.annotations.NotNull;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Spool backed by a temporary file.
+ */
+class FileSpool implements MappableSpool {
+
+    private final Path file;
+
+    private final FileChannel fileChannel;
+
+    FileSpool(@NotNull final Path file) throws IOException {
+        this.file = file;
+        this.fileChannel = FileChannel.open(file, READ, WRITE);
+    }
+
+    @Override
+    public boolean reserve(final long size) {
+        return true;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return fileChannel.size();
+    }
+
+    @Override
+    public int read(@NotNull final ByteBuffer dst, final long position) throws IOException {
+        return fileChannel.read(dst, position);
+    }
+
+    @Override
+    public int write(@NotNull final ByteBuffer src, final long position) throws IOException {
+        return fileChannel.write(src, position);
+    }
+
+    @Override
+    public void truncate(final long size) throws IOException {
+        fileChannel.truncate(size);
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, @NotNull final WritableByteChannel target) throws IOException {
+        return fileChannel.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(@NotNull final ReadableByteChannel src, final long position, final long count) throws IOException {
+        return fileChannel.transferFrom(src, position, count);
+    }
+
+    @Override
+    @NotNull
+    public MappedByteBuffer map(@NotNull final FileChannel.MapMode mode, final long position, final long size) throws IOException {
+        return fileChannel.map(mode, position, size);
+    }
+
+    @Override
+    @NotNull
+    public InputStream newInputStream() throws IOException {
+        return Files.newInputStream(file, READ);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            fileChannel.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Session;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Registry of the open file systems of a provider, by session and by URI, without a global lock.
+ *
+ * File systems whose session was logged out elsewhere are evicted when found on lookup
+ * and by a sweep over all entries, run at most once per interval on registration.
+ *
+ * The URI of a file system is reduced to its scheme and authority. An authority is held by
+ * one open file system at most and resolves to it. URIs without authority are shared by file
+ * systems of different sessions and resolve only while a single one of them is open. The set of
+ * file systems of a URI is removed with its last file system.
+ */
+class FileSystemRegistry {
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentMap<Session, JcrFileSystem> bySession = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<URI, Set<JcrFileSystem>> byUri = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * @return {@code false} if the session of the file system is used by another open file system already
+     * @throws FileSystemAlreadyExistsException if the authority of the URI is held by another open file system
+     */
+    boolean register(@NotNull final JcrFileSystem fileSystem) {
+        sweepIfDue();
+        final Session session = fileSystem.getSession();
+        final JcrFileSystem existing = bySession.putIfAbsent(session, fileSystem);
+        if (existing != null) {
+            if (existing.isOpen() || !bySession.replace(session, existing, fileSystem)) {
+                return false;
+            }
+            evicted.incrementAndGet();
+            removeUri(existing);
+        }
+        final URI key = key(fileSystem.getUri());
+        // checking and adding is atomic per URI
+        final Set<JcrFileSystem> fileSystems = byUri.compute(key, (uri, current) -> {
+            final Set<JcrFileSystem> set = current == null ? ConcurrentHashMap.newKeySet() : current;
+            if (uri.getAuthority() == null || set.stream().noneMatch(JcrFileSystem::isOpen)) {
+                set.add(fileSystem);
+            }
+            return set;
+        });
+        if (!fileSystems.contains(fileSystem)) {
+            bySession.remove(session, fileSystem);
+            throw new FileSystemAlreadyExistsException(key.toString());
+        }
+        return true;
+    }
+
+    void unregister(@NotNull final JcrFileSystem fileSystem) {
+        bySession.remove(fileSystem.getSession(), fileSystem);
+        removeUri(fileSystem);
+    }
+
+    /**
+     * @return the open file system of the URI's scheme and authority or {@code null}
+     * @throws FileSystemNotFoundException if several file systems are open for a URI without authority
+     */
+    @Nullable
+    JcrFileSystem get(@NotNull final URI uri) {
+        final URI key = key(uri);
+        // looks at two file systems at most, evicting closed ones on the way
+        while (true) {
+            final Set<JcrFileSystem> fileSystems = byUri.get(key);
+            if (fileSystems == null) {
+                return null;
+            }
+            final Iterator<JcrFileSystem> iterator = fileSystems.iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            final JcrFileSystem first = iterator.next();
+            if (!first.isOpen()) {
+                evict(first);
+                continue;
+            }
+            if (!iterator.hasNext()) {
+                return first;
+            }
+            final JcrFileSystem second = iterator.next();
+            if (!second.isOpen()) {
+                evict(second);
+                continue;
+            }
+            throw new FileSystemNotFoundException(key + " is ambiguous, several file systems are open for it");
+        }
+    }
+
+    int size() {
+        return bySession.size();
+    }
+
+    long getEvicted() {
+        return evicted.get();
+    }
+
+    private void sweepIfDue() {
+        final long now = System.nanoTime();
+        final long last = lastSweep.get();
+        if (now - last < SWEEP_INTERVAL || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        for (final JcrFileSystem fileSystem : bySession.values()) {
+            if (!fileSystem.isOpen()) {
+                evict(fileSystem);
+            }
+        }
+    }
+
+    private void evict(final JcrFileSystem fileSystem) {
+        if (bySession.remove(fileSystem.getSession(), fileSystem)) {
+            evicted.incrementAndGet();
+        }
+        removeUri(fileSystem);
+    }
+
+    private void removeUri(final JcrFileSystem fileSystem) {
+        // atomic with registering, a set is never removed while a file system is added to it
+        byUri.computeIfPresent(key(fileSystem.getUri()), (uri, fileSystems) -> {
+            fileSystems.remove(fileSystem);
+            return fileSystems.isEmpty() ? null : fileSystems;
+        });
+    }
+
+    static URI key(@NotNull final URI uri) {
+        try {
+            final String scheme = uri.getScheme() == null ? null : uri.getScheme().toLowerCase(Locale.ROOT);
+            return new URI(scheme, uri.getAuthority(), "/", null, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+}
@@ -19,34 +19,45 @@
 package org.apache.sling.commons.jcr.file.internal;
 
 import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.NoSuchElementException;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 
+import org.apache.sling.commons.jcr.file.NameGlobFilter;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Lazy stream over the children of a directory node in repository order.
+ *
+ * Children are read from the {@link NodeIterator} and filtered one at a time,
+ * a {@link NameGlobFilter} is pushed down into {@link Node#getNodes(String[])}.
+ * Entries carry an {@link AttributeSnapshot} of their node.
+ */
 public class JcrDirectoryStream implements DirectoryStream<Path> {
 
     private final JcrPath directory;
 
     private final JcrFileSystem fileSystem;
 
-    private final DirectoryStream.Filter<? super Path> filter; // TODO
+    private final DirectoryStream.Filter<? super Path> filter;
 
     private final Node node;
 
+    private boolean iterated;
+
+    private volatile boolean closed;
+
     private final Logger logger = LoggerFactory.getLogger(JcrDirectoryStream.class);
 
-    // TODO take filter into account
     JcrDirectoryStream(@NotNull final JcrPath directory, final Filter<? super Path> filter) throws NotDirectoryException {
         this.directory = directory;
         this.filter = filter;
@@ -69,35 +80,48 @@ public class JcrDirectoryStream implements DirectoryStream<Path> {
     @NotNull
     public Iterator<Path> iterator() {
         logger.info("iterator for {}", directory);
+        if (closed) {
+            throw new IllegalStateException("directory stream is closed");
+        }
+        if (iterated) {
+            throw new IllegalStateException("iterator already obtained");
+        }
+        iterated = true;
 
-        final Set<String> paths = new HashSet<>();
-
+        final NodeIterator nodes;
         try {
-            final NodeIterator nodes = node.getNodes();
-            while (nodes.hasNext()) {
-                final Node node = nodes.nextNode();
-                if (fileSystem.provider().isDirectory(node) || fileSystem.provider().isFile(node)) {
-                    final String path = node.getPath();
-                    paths.add(path);
-                    logger.info("node {} added", path);
-                }
+            if (filter instanceof NameGlobFilter) {
+                nodes = node.getNodes(((NameGlobFilter) filter).getGlobs());
+            } else {
+                nodes = node.getNodes();
             }
-        } catch (Exception e) {
+        } catch (RepositoryException e) {
             logger.error(e.getMessage(), e);
+            throw new DirectoryIteratorException(new IOException(e));
         }
 
+        final AttributeCache attributeCache = fileSystem.getAttributeCache();
+
         return new Iterator<Path>() {
 
-            final Iterator<String> iterator = paths.iterator();
+            private Path next;
 
             @Override
             public boolean hasNext() {
-                return iterator.hasNext();
+                if (next == null && !closed) {
+                    next = advance();
+                }
+                return next != null;
             }
 
             @Override
             public Path next() {
-                return new JcrPath(fileSystem, iterator.next());
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Path path = next;
+                next = null;
+                return path;
             }
 
             @Override
@@ -105,12 +129,37 @@ public class JcrDirectoryStream implements DirectoryStream<Path> {
                 throw new UnsupportedOperationException();
             }
 
+            private Path advance() {
+                try {
+                    while (nodes.hasNext()) {
+                        final Node child = nodes.nextNode();
+                        final NodeTypeClassifier.Classification classification = fileSystem.provider().classify(child);
+                        if (classification == NodeTypeClassifier.Classification.OTHER) {
+                            continue;
+                        }
+                        final AttributeSnapshot snapshot = new AttributeSnapshot(child, classification, attributeCache.generation());
+                        final Path path = new JcrPath(fileSystem, child.getPath(), snapshot);
+                        if (filter == null || filter.accept(path)) {
+                            return path;
+                        }
+                    }
+                    return null;
+                } catch (RepositoryException e) {
+                    logger.error(e.getMessage(), e);
+                    throw new DirectoryIteratorException(new IOException(e));
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                    throw new DirectoryIteratorException(e);
+                }
+            }
+
         };
 
     }
 
     @Override
     public void close() throws IOException {
+        closed = true;
     }
 
 }
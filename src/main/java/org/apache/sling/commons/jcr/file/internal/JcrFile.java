@@ -26,6 +26,7 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
@@ -36,68 +37,65 @@ import org.slf4j.LoggerFactory;
 
 public class JcrFile extends File {
 
+    private final JcrPath jcrPath;
+
     private final String path;
 
     private final JcrFileSystem fileSystem;
 
-    private final Logger logger = LoggerFactory.getLogger(JcrFile.class);
+    private static final Logger logger = LoggerFactory.getLogger(JcrFile.class);
 
     JcrFile(@NotNull final JcrFileSystem fileSystem, @NotNull String pathname) {
-        super(pathname);
-        this.fileSystem = fileSystem;
-        this.path = PathUtil.normalize(pathname); // TODO
+        this(new JcrPath(fileSystem, pathname));
+    }
+
+    JcrFile(@NotNull final JcrPath path) {
+        super(path.toString());
+        this.jcrPath = path;
+        this.fileSystem = (JcrFileSystem) path.getFileSystem();
+        this.path = path.toString();
     }
 
     @Override
     @NotNull
     public String getName() {
-        logger.info("getting name for {}", path);
-        return PathUtil.getName(path);
+        final Path name = jcrPath.getFileName();
+        return name == null ? "" : name.toString();
     }
 
     @Override
     public String getParent() {
-        logger.info("getting parent for {}", path);
-        return PathUtil.getParent(path);
+        final Path parent = jcrPath.getParent();
+        return parent == null ? null : parent.toString();
     }
 
     @Override
     public File getParentFile() {
-        logger.info("getting parent file for {}", path);
-        final String path = PathUtil.getParent(this.path);
-        if (path != null) {
-            return new JcrFile(fileSystem, path);
-        } else {
-            return null;
-        }
+        final Path parent = jcrPath.getParent();
+        return parent == null ? null : new JcrFile((JcrPath) parent);
     }
 
     @Override
     @NotNull
     public String getPath() {
-        logger.info("getting path {}", path);
         return path;
     }
 
     @Override
     public boolean isAbsolute() {
-        logger.info("is absolute {}", path);
-        return PathUtil.isAbsolute(path);
+        return jcrPath.isAbsolute();
     }
 
-    // TODO
     @Override
     @NotNull
     public String getAbsolutePath() {
-        logger.info("getting absolute path {}", path);
-        throw new UnsupportedOperationException("getAbsolutePath");
+        return jcrPath.toAbsolutePath().toString();
     }
 
     @Override
     @NotNull
     public File getAbsoluteFile() {
-        logger.info("getting absolute file for {}", path);
-        return new JcrFile(fileSystem, getAbsolutePath());
+        return new JcrFile((JcrPath) jcrPath.toAbsolutePath());
     }
 
     // TODO
@@ -145,16 +143,18 @@ public class JcrFile extends File {
         return true;
     }
 
-    // TODO
     @Override
     public boolean exists() {
-        logger.info("exists");
-        return true;
+        try {
+            return fileSystem.getSession().nodeExists(jcrPath.toAbsolutePath().toString());
+        } catch (RepositoryException e) {
+            logger.debug("checking existence of {} failed", path, e);
+            return false;
+        }
     }
 
     @Override
     public boolean isDirectory() {
-        logger.info("is directory {}", path);
         try {
             return fileSystem.provider().isDirectory(getNode());
         } catch (Exception e) {
@@ -164,7 +164,6 @@ public class JcrFile extends File {
 
     @Override
     public boolean isFile() {
-        logger.info("is file {}", path);
         try {
             return fileSystem.provider().isFile(getNode());
         } catch (Exception e) {
@@ -200,11 +199,16 @@ public class JcrFile extends File {
         throw new UnsupportedOperationException("createNewFile");
     }
 
-    // TODO
     @Override
     public boolean delete() {
-        logger.info("delete");
-        throw new UnsupportedOperationException("delete");
+        logger.info("delete: {}", path);
+        try {
+            fileSystem.provider().delete(jcrPath);
+            return true;
+        } catch (IOException e) {
+            logger.debug("deleting {} failed", path, e);
+            return false;
+        }
     }
 
     // TODO
@@ -249,25 +253,47 @@ public class JcrFile extends File {
         throw new UnsupportedOperationException("listFiles");
     }
 
-    // TODO
     @Override
     public boolean mkdir() {
-        logger.info("mkdir");
-        throw new UnsupportedOperationException("mkdir");
+        logger.info("mkdir: {}", path);
+        try {
+            fileSystem.provider().createDirectory(jcrPath);
+            return true;
+        } catch (IOException e) {
+            logger.debug("creating directory {} failed", path, e);
+            return false;
+        }
     }
 
-    // TODO
     @Override
     public boolean mkdirs() {
-        logger.info("mkdirs");
-        throw new UnsupportedOperationException("mkdirs");
+        logger.info("mkdirs: {}", path);
+        if (exists()) {
+            return false;
+        }
+        try {
+            fileSystem.provider().createDirectories(jcrPath);
+            return true;
+        } catch (IOException e) {
+            logger.debug("creating directories {} failed", path, e);
+            return false;
+        }
     }
 
-    // TODO
     @Override
-    public boolean renameTo(File dest) {
-        logger.info("renameTo");
-        throw new UnsupportedOperationException("renameTo");
+    public boolean renameTo(final File dest) {
+        logger.info("renameTo: {}", dest);
+        if (!(dest instanceof JcrFile)) {
+            return false;
+        }
+        // replaces like rename(2)
+        try {
+            fileSystem.provider().move(jcrPath, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException e) {
+            logger.debug("renaming {} failed", path, e);
+            return false;
+        }
     }
 
     // TODO
@@ -351,40 +377,33 @@ public class JcrFile extends File {
         return Long.MAX_VALUE;
     }
 
-    // TODO
     @Override
     public int compareTo(final File pathname) {
-        logger.info("compareTo");
         return path.compareTo(pathname.getPath());
     }
 
-    // TODO
     @Override
     public boolean equals(final Object obj) {
-        logger.info("equals");
-        if ((obj != null) && (obj instanceof JcrFile)) {
-            return compareTo((JcrFile) obj) == 0;
+        if (obj instanceof JcrFile) {
+            return jcrPath.equals(((JcrFile) obj).jcrPath);
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        logger.info("hash code ({})", path);
-        return path.hashCode() ^ 1234321;
+        return jcrPath.hashCode() ^ 1234321;
     }
 
     @Override
     public String toString() {
-        logger.info("to string ({})", path);
         return path;
     }
 
     @Override
     @NotNull
     public Path toPath() {
-        logger.info("to path ({})", path);
-        return new JcrPath(fileSystem, path);
+        return jcrPath;
     }
 
     Node getNode() throws RepositoryException {
@@ -20,6 +20,12 @@ package org.apache.sling.commons.jcr.file.internal;
 
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
+import java.util.Calendar;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+
+import org.jetbrains.annotations.NotNull;
 
 public class JcrFileAttributes implements BasicFileAttributes {
 
@@ -50,6 +56,57 @@ public class JcrFileAttributes implements BasicFileAttributes {
         this.size = size;
     }
 
+    /**
+     * Reads the attributes from the node, the classification is known to callers already.
+     */
+    @NotNull
+    static JcrFileAttributes fromNode(@NotNull final Node node, @NotNull final NodeTypeClassifier.Classification classification) {
+        final boolean isRegularFile = classification == NodeTypeClassifier.Classification.FILE;
+        final FileTime lastModifiedTime = lastModifiedTime(node, isRegularFile);
+        final FileTime lastAccessTime = FileTime.fromMillis(0L);
+        final FileTime creationTime = timeFromProperty(node, "jcr:created");
+        final boolean isDirectory = classification == NodeTypeClassifier.Classification.DIRECTORY;
+        final boolean isSymbolicLink = false;
+        final boolean isOther = !isRegularFile && !isDirectory;
+        final long size;
+        if (isRegularFile) {
+            size = lengthOfFileContent(node);
+        } else {
+            size = 0;
+        }
+        return new JcrFileAttributes(lastModifiedTime, lastAccessTime, creationTime, isRegularFile, isDirectory, isSymbolicLink, isOther, size);
+    }
+
+    // nt:file keeps the modification time on its nt:resource content node
+    private static FileTime lastModifiedTime(final Node node, final boolean isRegularFile) {
+        try {
+            if (isRegularFile && !node.hasProperty("jcr:lastModified") && node.hasNode("jcr:content")) {
+                return timeFromProperty(node.getNode("jcr:content"), "jcr:lastModified");
+            }
+        } catch (Exception e) {
+            return FileTime.fromMillis(0L);
+        }
+        return timeFromProperty(node, "jcr:lastModified");
+    }
+
+    private static FileTime timeFromProperty(final Node node, final String name) {
+        try {
+            final Property property = node.getProperty(name);
+            final Calendar date = property.getDate();
+            return FileTime.fromMillis(date.getTimeInMillis());
+        } catch (Exception e) {
+            return FileTime.fromMillis(0L);
+        }
+    }
+
+    private static long lengthOfFileContent(final Node node) {
+        try {
+            return node.getNode("jcr:content").getProperty("jcr:data").getLength();
+        } catch (Exception e) {
+            return -1L;
+        }
+    }
+
     @Override
     public FileTime lastModifiedTime() {
         return lastModifiedTime;
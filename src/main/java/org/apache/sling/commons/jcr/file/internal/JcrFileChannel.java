@@ -22,124 +22,298 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.WritableByteChannel;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.file.OpenOption;
+import java.util.Map;
+import java.util.Set;
 
 import javax.jcr.Binary;
 import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.ValueFactory;
 
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
-import static java.nio.file.StandardOpenOption.READ;
-import static java.nio.file.StandardOpenOption.WRITE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 
 /**
  * https://wiki.apache.org/jackrabbit/JCR%20Binary%20Usecase
+ *
+ * Copy-on-write channel: reads are served from the JCR binary until the first
+ * mutating call, which spools the binary (see {@link SpoolFactory} for the tiers).
+ * Mutations which
+ * replace the whole content (a write at position 0 covering the current size,
+ * a truncate to 0 or {@code TRUNCATE_EXISTING}) start from an empty spool and
+ * never download the binary. A {@code transferFrom} into empty content feeds
+ * the source straight into a new binary without spooling it.
+ *
+ * Modified byte ranges are tracked; on close a channel which was not modified,
+ * or whose modified ranges still hold the original bytes, is closed without
+ * writing a new binary or saving the session.
+ *
+ * With a {@link WriteBack} the spool of a modified channel is handed over on close
+ * and uploaded into a new binary in the background, which is set on the node later
+ * by a thread calling into the file system.
  */
 public class JcrFileChannel extends FileChannel {
 
     private final Node node;
 
-    private final Path file = Files.createTempFile(null, null);
+    private final boolean append;
+
+    // reads until spooled, null afterwards
+    private BinaryReader reader;
+
+    // the binary at open time, null for new files
+    private BinaryReader original;
+
+    private final DirtyRanges dirtyRanges = new DirtyRanges();
+
+    private final SpoolFactory spoolFactory;
+
+    private final AttributeCache attributeCache;
 
-    private final FileChannel fileChannel;
+    private final SaveController saveController;
+
+    private final WriteBack writeBack;
+
+    private Spool spool;
+
+    private long position;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final int COMPARE_BUFFER_SIZE = 64 * 1024;
 
     private final Logger logger = LoggerFactory.getLogger(JcrFileChannel.class);
 
-    JcrFileChannel(final Node node) throws Exception {
+    JcrFileChannel(final Node node, final Set<? extends OpenOption> options, final SpoolFactory spoolFactory, final AttributeCache attributeCache, final SaveController saveController, @Nullable final WriteBack writeBack) throws Exception {
         logger.info("JcrFileChannel: {}", node.getPath());
         this.node = node;
-        fileChannel = init();
+        this.spoolFactory = spoolFactory;
+        this.attributeCache = attributeCache;
+        this.saveController = saveController;
+        this.writeBack = writeBack;
+        this.append = options.contains(APPEND);
+        final Binary binary = getBinary();
+        if (binary == null || binary.getSize() == 0 && node.isNew()) {
+            // new file without content, jcr:data has to be written on close
+            if (binary != null) {
+                binary.dispose();
+            }
+            spool(0, 0);
+        } else if (options.contains(TRUNCATE_EXISTING)) {
+            original = new BinaryReader(binary);
+            spool(0, 0);
+            dirtyRanges.add(0, Long.MAX_VALUE);
+        } else {
+            original = new BinaryReader(binary);
+            reader = original;
+        }
     }
 
     private Binary getBinary() throws RepositoryException {
-        return node.getNode("jcr:content").getProperty("jcr:data").getBinary();
+        try {
+            return node.getNode("jcr:content").getProperty("jcr:data").getBinary();
+        } catch (PathNotFoundException e) {
+            return null;
+        }
     }
 
     private void setBinary(final Binary binary) throws RepositoryException {
         node.getNode("jcr:content").setProperty("jcr:data", binary);
     }
 
-    private FileChannel init() throws IOException {
-        Binary binary = null;
-        try {
-            binary = getBinary();
-        } catch (Exception e) {
-            logger.error("reading binary failed: {}", e.getMessage(), e);
-        }
-        if (binary != null) {
-            try (final InputStream inputStream = binary.getStream()) {
-                Files.copy(inputStream, file, REPLACE_EXISTING);
-            } catch (Exception e) {
-                logger.error("copying binary to file failed: {}", e.getMessage(), e);
+    /**
+     * Creates the spool on first use and makes sure it can hold the given size.
+     *
+     * @param keep the number of bytes of the current binary which survive the pending mutation and have to be copied
+     * @param end  the size the spool has to hold after the pending mutation
+     * @return the spool
+     */
+    private Spool spool(final long keep, final long end) throws IOException {
+        if (spool == null) {
+            logger.debug("spooling {} bytes", keep);
+            final long expected = Math.max(end, original == null ? 0 : original.size());
+            spool = spoolFactory.newSpool(expected);
+            if (reader != null) {
+                try {
+                    final ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, Math.max(keep, 1)));
+                    long copied = 0;
+                    while (copied < keep) {
+                        buffer.clear();
+                        buffer.limit((int) Math.min(buffer.capacity(), keep - copied));
+                        final int read = reader.read(buffer, copied, true);
+                        if (read <= 0) {
+                            break;
+                        }
+                        buffer.flip();
+                        if (!spool.reserve(copied + read)) {
+                            spool = spoolFactory.migrate(spool, copied + read);
+                        }
+                        while (buffer.hasRemaining()) {
+                            spool.write(buffer, copied + buffer.position());
+                        }
+                        copied += read;
+                    }
+                } catch (IOException e) {
+                    logger.error("copying binary to spool failed: {}", e.getMessage(), e);
+                    throw e;
+                } finally {
+                    // the original binary is kept for the comparison on close
+                    if (reader == original) {
+                        reader.closeStream();
+                    } else {
+                        reader.close();
+                    }
+                    reader = null;
+                }
             }
         }
-        return FileChannel.open(file, READ, WRITE);
+        if (!spool.reserve(end)) {
+            spool = spoolFactory.migrate(spool, end);
+        }
+        return spool;
+    }
+
+    private long currentSize() throws IOException {
+        if (spool != null) {
+            return spool.size();
+        } else if (reader != null) {
+            return reader.size();
+        } else {
+            return 0;
+        }
+    }
+
+    // bytes of the current content which survive a write of length bytes at position
+    private long keep(final long position, final long length) throws IOException {
+        final long size = currentSize();
+        return position == 0 && length >= size ? 0 : size;
     }
 
     @Override
     public int read(final ByteBuffer dst) throws IOException {
         logger.info("read");
-        return fileChannel.read(dst);
+        final int read = read(dst, position, true);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
     }
 
     @Override
     public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
         logger.info("read {} {}", offset, length);
-        return fileChannel.read(dsts, offset, length);
+        if (offset < 0 || length < 0 || offset > dsts.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            final int read = read(dsts[i]);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total == 0 && position >= currentSize() ? -1 : total;
     }
 
     @Override
     public int write(final ByteBuffer src) throws IOException {
         logger.info("write");
-        return fileChannel.write(src);
+        if (append) {
+            position = currentSize();
+        }
+        final int written = write(src, position);
+        position += written;
+        return written;
     }
 
     @Override
     public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
         logger.info("write {} {}", offset, length);
-        return fileChannel.write(srcs, offset, length);
+        if (offset < 0 || length < 0 || offset > srcs.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        if (append) {
+            position = currentSize();
+        }
+        long remaining = 0;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += srcs[i].remaining();
+        }
+        final long size = currentSize();
+        final Spool spool = spool(keep(position, remaining), Math.max(size, position + remaining));
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            while (srcs[i].hasRemaining()) {
+                written += spool.write(srcs[i], position + written);
+            }
+        }
+        // a write beyond the end also changes the gap in between
+        dirtyRanges.add(Math.min(position, size), position + written);
+        position += written;
+        return written;
     }
 
     @Override
     public long position() throws IOException {
         logger.info("position");
-        return fileChannel.position();
+        ensureOpen();
+        return position;
     }
 
     @Override
     public FileChannel position(final long newPosition) throws IOException {
-        logger.info("setting position ({}) to new position {}", fileChannel.position(), newPosition);
-        fileChannel.position(newPosition);
+        logger.info("setting position ({}) to new position {}", position, newPosition);
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position: " + newPosition);
+        }
+        ensureOpen();
+        position = newPosition;
         return this;
     }
 
-    // TODO
     @Override
     public long size() throws IOException {
         logger.info("size");
-        try {
-            return getBinary().getSize();
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
-            throw new IOException(e);
-        }
+        ensureOpen();
+        return currentSize();
     }
 
     @Override
     public FileChannel truncate(final long size) throws IOException {
-        logger.info("truncate", size);
-        fileChannel.truncate(size);
+        logger.info("truncate {}", size);
+        if (size < 0) {
+            throw new IllegalArgumentException("negative size: " + size);
+        }
+        ensureOpen();
+        if (size < currentSize()) {
+            // only the remaining prefix has to be downloaded, nothing for a truncate to 0
+            spool(size, size).truncate(size);
+            dirtyRanges.add(size, Long.MAX_VALUE);
+        }
+        if (position > size) {
+            position = size;
+        }
         return this;
     }
 
@@ -152,62 +326,304 @@ public class JcrFileChannel extends FileChannel {
     @Override
     public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
         logger.info("transferTo {} {}", position, count);
-        return fileChannel.transferTo(position, count, target);
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("negative position or count");
+        }
+        ensureOpen();
+        if (spool != null) {
+            return spool.transferTo(position, count, target);
+        } else if (reader != null) {
+            return reader.transferTo(position, count, target, spoolFactory.getTransferPool());
+        } else {
+            return 0;
+        }
     }
 
     @Override
     public long transferFrom(final ReadableByteChannel src, final long position, final long count) throws IOException {
-        logger.info("transferFrom {} {}", position, count);
-        return fileChannel.transferFrom(src, position, count);
+        logger.info("transferFrom {} {}", position, count);
+        ensureOpen();
+        if (position > currentSize()) {
+            return 0;
+        }
+        if (position == 0 && currentSize() == 0 && isBlocking(src)) {
+            return transferIntoBinary(src, count);
+        }
+        // bytes beyond what src delivers survive, so the content is only replaced when empty
+        final long size = currentSize();
+        final long end = count > Long.MAX_VALUE - position ? Long.MAX_VALUE : position + count;
+        final long transferred = spool(size, Math.max(size, end)).transferFrom(src, position, count);
+        dirtyRanges.add(position, position + transferred);
+        return transferred;
+    }
+
+    private static boolean isBlocking(final ReadableByteChannel channel) {
+        return !(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking();
+    }
+
+    /**
+     * Feeds the source straight into a new binary, which becomes the content of
+     * this channel and is set on close, instead of spooling it first.
+     */
+    private long transferIntoBinary(final ReadableByteChannel src, final long count) throws IOException {
+        logger.debug("transferring into binary");
+        final BinaryReader transferred;
+        try {
+            final ValueFactory valueFactory = node.getSession().getValueFactory();
+            transferred = new BinaryReader(valueFactory.createBinary(new ChannelInputStream(src, count)));
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+        if (spool != null) {
+            spool.close();
+            spool = null;
+        }
+        if (reader != null && reader != original) {
+            reader.close();
+        }
+        reader = transferred;
+        dirtyRanges.add(0, Long.MAX_VALUE);
+        return transferred.size();
     }
 
     @Override
     public int read(final ByteBuffer dst, final long position) throws IOException {
         logger.info("read {}", position);
-        return fileChannel.read(dst, position);
+        return read(dst, position, false);
+    }
+
+    private int read(final ByteBuffer dst, final long position, final boolean sequential) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("negative position: " + position);
+        }
+        ensureOpen();
+        if (spool != null) {
+            return spool.read(dst, position);
+        } else if (reader != null) {
+            return reader.read(dst, position, sequential);
+        } else {
+            return -1;
+        }
     }
 
     @Override
     public int write(final ByteBuffer src, final long position) throws IOException {
         logger.info("write {}", position);
-        return fileChannel.write(src, position);
+        if (position < 0) {
+            throw new IllegalArgumentException("negative position: " + position);
+        }
+        ensureOpen();
+        final long size = currentSize();
+        final int written = spool(keep(position, src.remaining()), Math.max(size, position + src.remaining())).write(src, position);
+        // a write beyond the end also changes the gap in between
+        dirtyRanges.add(Math.min(position, size), position + written);
+        return written;
     }
 
-    // TODO
+    /**
+     * Maps a region of the content. Read-only and private mappings of unmodified content
+     * map the materialized binary, otherwise the spool is promoted to a file and mapped;
+     * read-write mappings are backed by the spool and carried back on close.
+     */
     @Override
-    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
-        logger.info("map {} {}", position, size);
-        return null;
+    public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+        logger.info("map {} {} {}", mode, position, size);
+        if (position < 0 || size < 0 || size > Integer.MAX_VALUE || position + size < 0) {
+            throw new IllegalArgumentException("invalid region: " + position + ", " + size);
+        }
+        ensureOpen();
+        final long current = currentSize();
+        if (mode == MapMode.READ_WRITE) {
+            // a plain file spool never migrates again, so the mapping stays attached to the content
+            final FileSpool fileSpool = spoolFactory.toFileSpool(spool(current, Math.max(current, position + size)));
+            spool = fileSpool;
+            // writes through the mapping are invisible to the channel, so the whole region is compared on close
+            dirtyRanges.add(Math.min(position, current), position + size);
+            return fileSpool.map(mode, position, size);
+        }
+        if (position + size > current) {
+            throw new IOException("cannot map beyond the end of the content in mode " + mode);
+        }
+        if (spool == null) {
+            return reader.materialize(spoolFactory).map(mode, position, size);
+        }
+        final MappableSpool mappable = spoolFactory.toMappable(spool);
+        spool = mappable;
+        return mappable.map(mode, position, size);
     }
 
-    // TODO
+    /**
+     * JCR has no byte range locking: locks are local to this channel, which works on
+     * a spool of its own until closed.
+     */
     @Override
-    public FileLock lock(long position, long size, boolean shared) throws IOException {
+    public FileLock lock(final long position, final long size, final boolean shared) throws IOException {
         logger.info("lock {} {} {}", position, size, shared);
-        return null;
+        return tryLock(position, size, shared);
     }
 
-    // TODO
     @Override
-    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
-        logger.info("tryLock {} {} {}", position, size, shared);
-        return null;
+    public FileLock tryLock(final long position, final long size, final boolean shared) throws IOException {
+        logger.info("tryLock {} {} {}", position, size, shared);
+        if (position < 0 || size < 0 || position + size < 0) {
+            throw new IllegalArgumentException("invalid region: " + position + ", " + size);
+        }
+        ensureOpen();
+        return new ChannelLock(this, position, size, shared);
     }
 
     @Override
     protected void implCloseChannel() throws IOException {
         logger.info("implCloseChannel");
-        fileChannel.close();
-        try (final InputStream inputStream = Files.newInputStream(file, READ, DELETE_ON_CLOSE)) {
+        if (reader != null && reader == original) {
+            // never spooled, the binary is unchanged
+            original.close();
+            return;
+        }
+        if (reader != null) {
+            // content replaced by a binary created in transferFrom
+            try {
+                setBinary(reader.getBinary());
+                attributeCache.invalidate(node.getPath());
+                saveController.written(reader.getBinary().getSize());
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+                throw new IOException(e);
+            } finally {
+                reader.close();
+                if (original != null) {
+                    original.close();
+                }
+            }
+            return;
+        }
+        boolean handedOver = false;
+        try {
+            if (!isModified()) {
+                logger.debug("content of {} unchanged, skipping write", node.getPath());
+                return;
+            }
+            if (writeBack != null) {
+                final String path = node.getPath();
+                final long size = spool.size();
+                handedOver = true;
+                writeBack.submit(path, spool, binary -> {
+                    setBinary(binary);
+                    attributeCache.invalidate(path);
+                    saveController.written(size);
+                });
+            } else {
+                write(spool);
+            }
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        } finally {
+            if (!handedOver) {
+                spool.close();
+            }
+            if (original != null) {
+                original.close();
+            }
+        }
+    }
+
+    private void write(final Spool spool) throws IOException, RepositoryException {
+        try (final InputStream inputStream = spool.newInputStream()) {
             final Session session = node.getSession();
             final ValueFactory valueFactory = session.getValueFactory();
             final Binary binary = valueFactory.createBinary(inputStream);
             setBinary(binary);
-            session.save();
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
-            throw new IOException(e);
+            attributeCache.invalidate(node.getPath());
+            saveController.written(spool.size());
+        }
+    }
+
+    /**
+     * Compares the dirty ranges of the spool with the original binary, which
+     * yields the same answer as comparing digests of the whole content but only
+     * reads the modified bytes and stops at the first difference.
+     */
+    private boolean isModified() throws IOException {
+        if (original == null) {
+            return true;
+        }
+        if (dirtyRanges.isEmpty()) {
+            return false;
+        }
+        final long size = spool.size();
+        if (size != original.size()) {
+            return true;
+        }
+        final ByteBuffer spooled = ByteBuffer.allocate(COMPARE_BUFFER_SIZE);
+        final ByteBuffer originals = ByteBuffer.allocate(COMPARE_BUFFER_SIZE);
+        for (final Map.Entry<Long, Long> range : dirtyRanges.ranges()) {
+            final long end = Math.min(range.getValue(), size);
+            long position = range.getKey();
+            while (position < end) {
+                final int length = (int) Math.min(COMPARE_BUFFER_SIZE, end - position);
+                spooled.clear().limit(length);
+                originals.clear().limit(length);
+                while (spooled.hasRemaining() && spool.read(spooled, position + spooled.position()) > 0) {
+                    // fill
+                }
+                while (originals.hasRemaining() && original.read(originals, position + originals.position(), false) > 0) {
+                    // fill
+                }
+                spooled.flip();
+                originals.flip();
+                if (!spooled.equals(originals)) {
+                    return true;
+                }
+                position += length;
+            }
+        }
+        return false;
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
         }
     }
 
+    /**
+     * Reads up to count bytes from a channel, never closes it as
+     * {@link ValueFactory#createBinary(InputStream)} closes the stream.
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private final ReadableByteChannel channel;
+
+        private long remaining;
+
+        ChannelInputStream(final ReadableByteChannel channel, final long count) {
+            this.channel = channel;
+            this.remaining = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+
+    }
+
 }
@@ -23,8 +23,53 @@ import java.nio.file.FileStore;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.attribute.FileStoreAttributeView;
 
+/**
+ * Store of a {@link JcrFileSystem}, which exposes the statistics of its attribute cache
+ * as {@code attributeCache:hits}, {@code attributeCache:misses} and {@code attributeCache:size}.
+ * The stores of pooled file systems also expose the statistics of their session pool.
+ */
 public class JcrFileStore extends FileStore {
 
+    static final String ATTRIBUTE_CACHE_HITS = "attributeCache:hits";
+
+    static final String ATTRIBUTE_CACHE_MISSES = "attributeCache:misses";
+
+    static final String ATTRIBUTE_CACHE_SIZE = "attributeCache:size";
+
+    static final String FILE_SYSTEMS_OPEN = "fileSystems:open";
+
+    static final String FILE_SYSTEMS_EVICTED = "fileSystems:evicted";
+
+    static final String SAVES_COUNT = "saves:count";
+
+    static final String SAVES_PENDING_OPERATIONS = "saves:pendingOperations";
+
+    static final String SAVES_PENDING_BYTES = "saves:pendingBytes";
+
+    static final String WRITE_BACK_PENDING = "writeBack:pending";
+
+    static final String WRITE_BACK_COMPLETED = "writeBack:completed";
+
+    static final String WRITE_BACK_FAILED = "writeBack:failed";
+
+    static final String SESSION_POOL_CHECKOUTS = "sessionPool:checkouts";
+
+    static final String SESSION_POOL_LOGINS = "sessionPool:logins";
+
+    static final String SESSION_POOL_IDLE = "sessionPool:idle";
+
+    static final String SESSION_POOL_RECLAIMED = "sessionPool:reclaimed";
+
+    static final String SESSION_POOL_WAIT_TIME = "sessionPool:waitTime";
+
+    static final String SESSION_POOL_MAX_WAIT_TIME = "sessionPool:maxWaitTime";
+
+    private final JcrFileSystem fileSystem;
+
+    JcrFileStore(final JcrFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
     // TODO
     @Override
     public String name() {
@@ -38,7 +83,7 @@ public class JcrFileStore extends FileStore {
 
     @Override
     public boolean isReadOnly() {
-        return false;
+        return fileSystem.isReadOnly();
     }
 
     @Override
@@ -72,8 +117,75 @@ public class JcrFileStore extends FileStore {
     }
 
     @Override
-    public Object getAttribute(String attribute) throws IOException {
-        return null;
+    public Object getAttribute(final String attribute) throws IOException {
+        final AttributeCache attributeCache = fileSystem.getAttributeCache();
+        if (attribute.startsWith("sessionPool:")) {
+            return getSessionPoolAttribute(attribute);
+        }
+        if (attribute.startsWith("writeBack:")) {
+            return getWriteBackAttribute(attribute);
+        }
+        switch (attribute) {
+            case ATTRIBUTE_CACHE_HITS:
+                return attributeCache.getHits();
+            case ATTRIBUTE_CACHE_MISSES:
+                return attributeCache.getMisses();
+            case ATTRIBUTE_CACHE_SIZE:
+                return attributeCache.size();
+            case SAVES_COUNT:
+                return fileSystem.getSaveController().getSaves();
+            case SAVES_PENDING_OPERATIONS:
+                return fileSystem.getSaveController().getPendingOperations();
+            case SAVES_PENDING_BYTES:
+                return fileSystem.getSaveController().getPendingBytes();
+            case FILE_SYSTEMS_OPEN:
+                return fileSystem.provider().getRegistry().size();
+            case FILE_SYSTEMS_EVICTED:
+                return fileSystem.provider().getRegistry().getEvicted();
+            default:
+                throw new UnsupportedOperationException("unsupported attribute: " + attribute);
+        }
+    }
+
+    private Object getWriteBackAttribute(final String attribute) {
+        final WriteBack writeBack = fileSystem.getWriteBack();
+        if (writeBack == null) {
+            throw new UnsupportedOperationException("file system does not write back: " + attribute);
+        }
+        switch (attribute) {
+            case WRITE_BACK_PENDING:
+                return writeBack.getPending();
+            case WRITE_BACK_COMPLETED:
+                return writeBack.getCompleted();
+            case WRITE_BACK_FAILED:
+                return writeBack.getFailed();
+            default:
+                throw new UnsupportedOperationException("unsupported attribute: " + attribute);
+        }
+    }
+
+    // wait times in nanoseconds
+    private Object getSessionPoolAttribute(final String attribute) {
+        final SessionPool sessionPool = fileSystem.getSessionPool();
+        if (sessionPool == null) {
+            throw new UnsupportedOperationException("file system is not pooled: " + attribute);
+        }
+        switch (attribute) {
+            case SESSION_POOL_CHECKOUTS:
+                return sessionPool.getCheckouts();
+            case SESSION_POOL_LOGINS:
+                return sessionPool.getLogins();
+            case SESSION_POOL_IDLE:
+                return sessionPool.getIdle();
+            case SESSION_POOL_RECLAIMED:
+                return sessionPool.getReclaimed();
+            case SESSION_POOL_WAIT_TIME:
+                return sessionPool.getWaitTime();
+            case SESSION_POOL_MAX_WAIT_TIME:
+                return sessionPool.getMaxWaitTime();
+            default:
+                throw new UnsupportedOperationException("unsupported attribute: " + attribute);
+        }
     }
 
 }
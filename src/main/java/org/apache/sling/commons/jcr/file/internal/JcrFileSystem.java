@@ -28,10 +28,15 @@ import java.nio.file.WatchService;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.observation.Event;
 
+import org.apache.sling.commons.jcr.file.SavePolicy;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,15 +50,55 @@ public class JcrFileSystem extends FileSystem {
 
     private final Iterable<Path> rootDirectories;
 
+    private final AttributeCache attributeCache;
+
+    private final DirectoryCache directoryCache;
+
+    private final JcrFileStore fileStore;
+
+    private final SaveController saveController;
+
+    private final WriteBack writeBack;
+
+    private final UploaderSessions uploaders;
+
+    private final SessionPool.Lease lease;
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
     static final String SEPARATOR = "/";
 
+    static final int EVENT_TYPES = Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+
     private final Logger logger = LoggerFactory.getLogger(JcrFileSystem.class);
 
-    JcrFileSystem(final JcrFileSystemProvider provider, final URI uri, final Session session) {
+    JcrFileSystem(final JcrFileSystemProvider provider, final URI uri, final Session session, final AttributeCache attributeCache, final DirectoryCache directoryCache, final SaveController saveController, final UploaderSessions uploaders, @Nullable final WriteBack writeBack) throws RepositoryException {
+        this(provider, uri, session, attributeCache, directoryCache, saveController, uploaders, writeBack, null);
+        if (attributeCache.isEnabled()) {
+            session.getWorkspace().getObservationManager().addEventListener(attributeCache, EVENT_TYPES, "/", true, null, null, false);
+        }
+    }
+
+    /**
+     * Read-only file system on a pooled session, the pool owns the session and its attribute cache.
+     */
+    JcrFileSystem(final JcrFileSystemProvider provider, final URI uri, final Session session, final AttributeCache attributeCache, final SessionPool.Lease lease) {
+        // never written
+        this(provider, uri, session, attributeCache, new DirectoryCache(0), new SaveController(session, SavePolicy.EXPLICIT, 1, 1, 0, Long.MAX_VALUE, Long.MAX_VALUE), null, null, lease);
+    }
+
+    private JcrFileSystem(final JcrFileSystemProvider provider, final URI uri, final Session session, final AttributeCache attributeCache, final DirectoryCache directoryCache, final SaveController saveController, final UploaderSessions uploaders, final WriteBack writeBack, final SessionPool.Lease lease) {
         this.provider = provider;
         this.uri = uri;
         this.session = session;
-        rootDirectories = Collections.singleton(new JcrPath(this, "/"));
+        this.attributeCache = attributeCache;
+        this.directoryCache = directoryCache;
+        this.saveController = saveController;
+        this.writeBack = writeBack;
+        this.uploaders = uploaders;
+        this.lease = lease;
+        this.fileStore = new JcrFileStore(this);
+        rootDirectories = Collections.singleton(JcrPath.normalized(this, "/"));
     }
 
     @Override
@@ -65,26 +110,74 @@ public class JcrFileSystem extends FileSystem {
     @Override
     public void close() throws IOException {
         logger.info("close");
-        provider.removeFromCache(this);
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (lease != null) {
+            lease.release();
+            return;
+        }
+        provider.unregister(this);
+        logger.debug("attribute cache hits: {}, misses: {}", attributeCache.getHits(), attributeCache.getMisses());
+        // failed write-backs must not keep the other changes from being saved
+        IOException failure = null;
+        if (writeBack != null) {
+            try {
+                writeBack.flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
         try {
-            session.save();
+            if (attributeCache.isEnabled()) {
+                session.getWorkspace().getObservationManager().removeEventListener(attributeCache);
+            }
+            saveController.commit();
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             throw new IOException(e);
+        } finally {
+            // a failed commit must not leak the write-back threads, the uploader sessions or the session
+            if (writeBack != null) {
+                try {
+                    writeBack.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            uploaders.close();
+            session.logout();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Undoes the construction of a file system which is not registered, the session stays untouched.
+     */
+    void release() {
+        try {
+            if (attributeCache.isEnabled()) {
+                session.getWorkspace().getObservationManager().removeEventListener(attributeCache);
+            }
+        } catch (RepositoryException e) {
+            logger.warn(e.getMessage(), e);
         }
-        session.logout();
     }
 
     @Override
     public boolean isOpen() {
-        logger.info("isOpen");
-        return session.isLive();
+        logger.trace("isOpen");
+        return !closed.get() && session.isLive();
     }
 
     @Override
     public boolean isReadOnly() {
         logger.info("isReadOnly");
-        return false;
+        return lease != null;
     }
 
     @Override
@@ -102,7 +195,7 @@ public class JcrFileSystem extends FileSystem {
     @Override
     public Iterable<FileStore> getFileStores() {
         logger.info("getFileStores");
-        return null;
+        return Collections.singleton(fileStore);
     }
 
     @Override
@@ -119,9 +212,9 @@ public class JcrFileSystem extends FileSystem {
     }
 
     @Override
-    public PathMatcher getPathMatcher(String syntaxAndPattern) {
-        logger.info("getPathMatcher");
-        throw new UnsupportedOperationException(); // TODO implement?
+    public PathMatcher getPathMatcher(final String syntaxAndPattern) {
+        logger.info("getPathMatcher: {}", syntaxAndPattern);
+        return JcrPathMatcher.compile(syntaxAndPattern);
     }
 
     @Override
@@ -136,8 +229,52 @@ public class JcrFileSystem extends FileSystem {
         throw new UnsupportedOperationException(); // TODO implement?
     }
 
+    URI getUri() {
+        return uri;
+    }
+
     Session getSession() {
         return session;
     }
 
+    AttributeCache getAttributeCache() {
+        return attributeCache;
+    }
+
+    DirectoryCache getDirectoryCache() {
+        return directoryCache;
+    }
+
+    SaveController getSaveController() {
+        return saveController;
+    }
+
+    /**
+     * @return the sessions creating binaries in the background, {@code null} for read-only file systems
+     */
+    @Nullable
+    UploaderSessions getUploaders() {
+        return uploaders;
+    }
+
+    /**
+     * @return the write-back of closed channels or {@code null} if they are written synchronously
+     */
+    @Nullable
+    WriteBack getWriteBack() {
+        return writeBack;
+    }
+
+    JcrFileStore getFileStore() {
+        return fileStore;
+    }
+
+    /**
+     * @return the pool lending the session or {@code null} if the session is owned by the caller
+     */
+    @Nullable
+    SessionPool getSessionPool() {
+        return lease == null ? null : lease.getPool();
+    }
+
 }
@@ -18,42 +18,83 @@
  */
 package org.apache.sling.commons.jcr.file.internal;
 
-import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
 import java.nio.file.AccessMode;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.CopyOption;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.LinkOption;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileAttributeView;
 import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
 import org.apache.sling.commons.jcr.file.JcrFileSupportService;
+import org.apache.sling.commons.jcr.file.SavePolicy;
+import org.apache.sling.commons.jcr.file.WriteBackListener;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @Component(
     service = FileSystemProvider.class,
+    configurationPid = "org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService",
     property = {
         Constants.SERVICE_DESCRIPTION + "=Apache Sling Commons JCR File System Provider",
         Constants.SERVICE_VENDOR + "=The Apache Software Foundation",
@@ -62,14 +103,53 @@ import org.slf4j.LoggerFactory;
 )
 public class JcrFileSystemProvider extends FileSystemProvider {
 
-    private final Map<Session, JcrFileSystem> cache = new HashMap<>();
-
-    private final JcrFileStore jcrFileStore = new JcrFileStore();
+    private final FileSystemRegistry registry = new FileSystemRegistry();
 
     @Reference
     private volatile JcrFileSupportService jcrFileSupportService;
 
-    private final Object lock = new Object();
+    @Reference
+    private volatile SpoolFactory spoolFactory;
+
+    @Reference
+    private volatile NodeTypeClassifier nodeTypeClassifier;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC, policyOption = ReferencePolicyOption.GREEDY)
+    private volatile SlingRepository slingRepository;
+
+    // by URI authority, an empty string for URIs without one
+    private volatile Map<String, SessionPool> sessionPools = Collections.emptyMap();
+
+    private volatile ThreadPoolExecutor outputStreamExecutor;
+
+    private volatile ThreadPoolExecutor writeBackExecutor;
+
+    // write-backs release the permits they acquired, from a replaced semaphore too
+    private volatile Semaphore writeBackPermits;
+
+    private volatile boolean writeBack;
+
+    private volatile int outputStreamPipeCapacity;
+
+    private volatile int attributeCacheSize;
+
+    private volatile long attributeCacheTtl;
+
+    private volatile int directoryCacheSize;
+
+    private volatile String directoryNodeType;
+
+    private volatile SavePolicy savePolicy;
+
+    private volatile long saveOperations;
+
+    private volatile long saveBytes;
+
+    private volatile long saveInterval;
+
+    private volatile long saveTransientOperations;
+
+    private volatile long saveTransientBytes;
 
     static final String SCHEME = "jcr";
 
@@ -78,6 +158,87 @@ public class JcrFileSystemProvider extends FileSystemProvider {
     public JcrFileSystemProvider() {
     }
 
+    @Activate
+    public void activate(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        final AtomicInteger counter = new AtomicInteger();
+        final int threads = Math.max(1, configuration.output_stream_threads());
+        // no queueing, a stream which cannot get a thread falls back to a spooling channel
+        outputStreamExecutor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "jcr-file-output-stream-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final AtomicInteger writeBackCounter = new AtomicInteger();
+        final int writeBackThreads = Math.max(1, configuration.write_back_threads());
+        writeBackExecutor = new ThreadPoolExecutor(writeBackThreads, writeBackThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "jcr-file-write-back-" + writeBackCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        writeBackExecutor.allowCoreThreadTimeOut(true);
+        configure(configuration);
+    }
+
+    @Modified
+    public void modified(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        outputStreamExecutor.setMaximumPoolSize(Math.max(1, configuration.output_stream_threads()));
+        final int writeBackThreads = Math.max(1, configuration.write_back_threads());
+        if (writeBackThreads > writeBackExecutor.getMaximumPoolSize()) {
+            writeBackExecutor.setMaximumPoolSize(writeBackThreads);
+            writeBackExecutor.setCorePoolSize(writeBackThreads);
+        } else {
+            writeBackExecutor.setCorePoolSize(writeBackThreads);
+            writeBackExecutor.setMaximumPoolSize(writeBackThreads);
+        }
+        configure(configuration);
+    }
+
+    @Deactivate
+    public void deactivate() {
+        outputStreamExecutor.shutdownNow();
+        // queued write-backs still run, later ones run on the closing threads
+        writeBackExecutor.shutdown();
+        closeSessionPools(sessionPools);
+        sessionPools = Collections.emptyMap();
+    }
+
+    private void configure(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        outputStreamPipeCapacity = Math.max(1, configuration.output_stream_pipe_size() / BinaryOutputStream.CHUNK_SIZE);
+        attributeCacheSize = Math.max(0, configuration.attribute_cache_size());
+        attributeCacheTtl = Math.max(0, configuration.attribute_cache_ttl());
+        directoryCacheSize = Math.max(0, configuration.directory_cache_size());
+        directoryNodeType = configuration.directory_node_type();
+        savePolicy = SavePolicy.valueOf(configuration.save_policy().trim().toUpperCase(Locale.ROOT));
+        saveOperations = configuration.save_operations();
+        saveBytes = configuration.save_bytes();
+        saveInterval = configuration.save_interval();
+        saveTransientOperations = configuration.save_transient_operations();
+        saveTransientBytes = configuration.save_transient_bytes();
+        writeBack = configuration.write_back();
+        writeBackPermits = new Semaphore(Math.max(1, configuration.write_back_pending()));
+        final Map<String, SessionPool> sessionPools = new HashMap<>();
+        for (final String entry : configuration.session_pools()) {
+            final int index = entry.indexOf('=');
+            if (index < 0 || index == entry.length() - 1) {
+                logger.warn("ignoring invalid session pool configuration: {}", entry);
+                continue;
+            }
+            final String authority = entry.substring(0, index).trim();
+            final String subServiceName = entry.substring(index + 1).trim();
+            sessionPools.put(authority, new SessionPool(authority, subServiceName, () -> slingRepository, configuration.session_pool_size(), configuration.session_pool_idle_timeout(), configuration.session_pool_max_wait(), attributeCacheSize, attributeCacheTtl));
+        }
+        final Map<String, SessionPool> previous = this.sessionPools;
+        this.sessionPools = sessionPools;
+        // sessions still in use are logged out when returned
+        closeSessionPools(previous);
+    }
+
+    private void closeSessionPools(final Map<String, SessionPool> sessionPools) {
+        for (final SessionPool sessionPool : sessionPools.values()) {
+            sessionPool.close();
+        }
+    }
+
     @Override
     public String getScheme() {
         logger.info("getting scheme");
@@ -114,42 +275,152 @@ public class JcrFileSystemProvider extends FileSystemProvider {
             throw new IllegalArgumentException("session in env is not live");
         }
 
-        synchronized (lock) {
-            if (isInCache(session)) {
-                throw new IllegalArgumentException("session is already in use");
+        final SaveController saveController = newSaveController(session, env);
+        final UploaderSessions uploaders = new UploaderSessions(session);
+        final WriteBack writeBack = newWriteBack(session, uploaders, env);
+        final JcrFileSystem fileSystem;
+        try {
+            fileSystem = new JcrFileSystem(this, uri, session, new AttributeCache(attributeCacheSize, attributeCacheTtl), new DirectoryCache(directoryCacheSize), saveController, uploaders, writeBack);
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+        final boolean registered;
+        try {
+            registered = registry.register(fileSystem);
+        } catch (FileSystemAlreadyExistsException e) {
+            fileSystem.release();
+            throw e;
+        }
+        if (!registered) {
+            fileSystem.release();
+            throw new IllegalArgumentException("session is already in use");
+        }
+        return fileSystem;
+    }
+
+    /**
+     * Creates the save controller from the configured policy, overridden by the env.
+     */
+    private SaveController newSaveController(final Session session, final Map<String, ?> env) {
+        final Object policy = env.get(SavePolicy.ENV_KEY);
+        final SavePolicy savePolicy;
+        if (policy == null) {
+            savePolicy = this.savePolicy;
+        } else if (policy instanceof SavePolicy) {
+            savePolicy = (SavePolicy) policy;
+        } else {
+            try {
+                savePolicy = SavePolicy.valueOf(policy.toString().trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("save policy in env is not one of " + Arrays.toString(SavePolicy.values()));
             }
-            final JcrFileSystem fileSystem = new JcrFileSystem(this, uri, session);
-            putIntoCache(fileSystem);
-            return fileSystem;
+        }
+        final long operations = longValue(env, SavePolicy.ENV_OPERATIONS, saveOperations);
+        final long bytes = longValue(env, SavePolicy.ENV_BYTES, saveBytes);
+        final long interval = longValue(env, SavePolicy.ENV_INTERVAL, saveInterval);
+        return new SaveController(session, savePolicy, operations, bytes, interval, saveTransientOperations, saveTransientBytes);
+    }
+
+    /**
+     * @return the write-back if enabled by the configuration or the env, {@code null} otherwise
+     */
+    @Nullable
+    private WriteBack newWriteBack(final Session session, final UploaderSessions uploaders, final Map<String, ?> env) {
+        final Object enabled = env.get(WriteBackListener.ENV_WRITE_BACK);
+        if (enabled == null ? !writeBack : !Boolean.parseBoolean(enabled.toString().trim())) {
+            return null;
+        }
+        final Object listener = env.get(WriteBackListener.ENV_KEY);
+        if (listener != null && !(listener instanceof WriteBackListener)) {
+            throw new IllegalArgumentException("write-back listener in env is not a " + WriteBackListener.class.getName());
+        }
+        return new WriteBack(session, uploaders, writeBackExecutor, writeBackPermits, (WriteBackListener) listener);
+    }
+
+    private static long longValue(final Map<String, ?> env, final String key, final long defaultValue) {
+        final Object value = env.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " in env is not a number");
         }
     }
 
+    /**
+     * Opens a new read-only file system on a pooled service session when a session pool is configured
+     * for the authority of the URI, the caller has to close it to return the session. Otherwise looks up
+     * the open file system created with a URI of the same scheme and authority. A URI without authority
+     * resolves only while a single file system without authority is open.
+     */
     @Override
     public FileSystem getFileSystem(final URI uri) {
-        final String message = String.format("getting file system by URI is not supported: %s", uri.toString());
-        logger.error(message);
-        throw new UnsupportedOperationException(message);
+        if (!getScheme().equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme is not " + getScheme());
+        }
+        final SessionPool sessionPool = sessionPools.get(uri.getAuthority() == null ? "" : uri.getAuthority());
+        if (sessionPool != null) {
+            try {
+                return sessionPool.open(this, FileSystemRegistry.key(uri));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        final JcrFileSystem fileSystem = registry.get(uri);
+        if (fileSystem == null) {
+            throw new FileSystemNotFoundException(uri.toString());
+        }
+        return fileSystem;
     }
 
+    /**
+     * Resolves the path of the URI on {@link #getFileSystem(URI)}. For an authority with a session pool
+     * the paths resolved on a thread share a read-only file system leased for that thread, which must
+     * not be used by other threads. Closing it returns the session, otherwise the session is reclaimed
+     * once the thread is gone.
+     */
     @Override
     public Path getPath(final URI uri) {
-        final String message = String.format("getting path by URI is not supported: %s", uri.toString());
-        logger.error(message);
-        throw new UnsupportedOperationException(message);
+        if (!getScheme().equalsIgnoreCase(uri.getScheme())) {
+            throw new IllegalArgumentException("URI scheme is not " + getScheme());
+        }
+        final SessionPool sessionPool = sessionPools.get(uri.getAuthority() == null ? "" : uri.getAuthority());
+        if (sessionPool != null) {
+            try {
+                return sessionPool.forThread(this, FileSystemRegistry.key(uri)).getPath(uri.getPath());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return getFileSystem(uri).getPath(uri.getPath());
     }
 
     // TODO
     public FileChannel newFileChannel(final Path path, final Set<? extends OpenOption> options, final FileAttribute<?>... attrs) throws IOException {
         logger.info("newFileChannel");
+        awaitWriteBack(path);
         try {
-            final JcrPath jcrPath = (JcrPath) path;
+            if (isReadOnly(options)) {
+                return new JcrReadOnlyFileChannel(PathUtil.toNode(path), spoolFactory);
+            }
+            checkWritable(path);
             final Node node;
-            if (jcrPath.toFile().exists()) {
+            if (PathUtil.exists(path)) {
                 node = PathUtil.toNode(path);
             } else {
                 node = jcrFileSupportService.newFile(path);
             }
-            return new JcrFileChannel(node);
+            return new JcrFileChannel(node, options, spoolFactory, attributeCache(path), saveController(path), writeBack(path));
+        } catch (PathNotFoundException e) {
+            throw new NoSuchFileException(path.toString());
+        } catch (ReadOnlyFileSystemException e) {
+            throw e;
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             throw new IOException(e);
@@ -160,15 +431,141 @@ public class JcrFileSystemProvider extends FileSystemProvider {
     @Override
     public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
         logger.info("newByteChannel");
+        awaitWriteBack(path);
         try {
             final Node node = PathUtil.toNode(path);
-            return new JcrFileChannel(node);
+            if (isReadOnly(options)) {
+                return new JcrReadOnlyFileChannel(node, spoolFactory);
+            }
+            checkWritable(path);
+            return new JcrFileChannel(node, options, spoolFactory, attributeCache(path), saveController(path), writeBack(path));
+        } catch (PathNotFoundException e) {
+            throw new NoSuchFileException(path.toString());
+        } catch (ReadOnlyFileSystemException e) {
+            throw e;
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             throw new IOException(e);
         }
     }
 
+    /**
+     * @throws ReadOnlyFileSystemException if the file system of the path is read-only
+     */
+    private static void checkWritable(final Path path) {
+        if (path.getFileSystem().isReadOnly()) {
+            throw new ReadOnlyFileSystemException();
+        }
+    }
+
+    /**
+     * Returns the stream of the binary, which is disposed when the stream is closed.
+     */
+    @Override
+    public InputStream newInputStream(final Path path, final OpenOption... options) throws IOException {
+        logger.info("newInputStream: {}", path);
+        for (final OpenOption option : options) {
+            if (option == StandardOpenOption.APPEND || option == StandardOpenOption.WRITE) {
+                throw new UnsupportedOperationException("'" + option + "' not allowed");
+            }
+        }
+        awaitWriteBack(path);
+        try {
+            final Binary binary = PathUtil.toNode(path).getNode("jcr:content").getProperty("jcr:data").getBinary();
+            final InputStream stream;
+            try {
+                stream = binary.getStream();
+            } catch (RepositoryException | RuntimeException e) {
+                binary.dispose();
+                throw e;
+            }
+            return new FilterInputStream(stream) {
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        binary.dispose();
+                    }
+                }
+
+            };
+        } catch (PathNotFoundException e) {
+            throw new NoSuchFileException(path.toString());
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Pipes the written bytes into a new binary when the content is replaced as a whole,
+     * appending and overwriting in place go through a spooling channel, as do streams
+     * when no uploader session or thread is available.
+     */
+    @Override
+    public OutputStream newOutputStream(final Path path, final OpenOption... options) throws IOException {
+        logger.info("newOutputStream: {}", path);
+        checkWritable(path);
+        awaitWriteBack(path);
+        final Set<OpenOption> opts = new HashSet<>(Arrays.asList(options));
+        if (opts.isEmpty()) {
+            opts.add(StandardOpenOption.CREATE);
+            opts.add(StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        if (opts.contains(StandardOpenOption.READ)) {
+            throw new IllegalArgumentException("READ not allowed");
+        }
+        if (opts.contains(StandardOpenOption.APPEND) && opts.contains(StandardOpenOption.TRUNCATE_EXISTING)) {
+            throw new IllegalArgumentException("APPEND + TRUNCATE_EXISTING not allowed");
+        }
+        final boolean exists;
+        try {
+            exists = PathUtil.exists(path);
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+        if (exists) {
+            if (opts.contains(StandardOpenOption.CREATE_NEW)) {
+                throw new FileAlreadyExistsException(path.toString());
+            }
+        } else if (!opts.contains(StandardOpenOption.CREATE) && !opts.contains(StandardOpenOption.CREATE_NEW)) {
+            throw new NoSuchFileException(path.toString());
+        }
+        try {
+            final Node node = exists ? PathUtil.toNode(path) : jcrFileSupportService.newFile(path);
+            if (opts.contains(StandardOpenOption.APPEND) || (exists && !opts.contains(StandardOpenOption.TRUNCATE_EXISTING))) {
+                return channelOutputStream(node, opts, path);
+            }
+            final JcrFileSystem fileSystem = (JcrFileSystem) path.getFileSystem();
+            final UploaderSessions uploaders = fileSystem.getUploaders();
+            final Session uploader = uploaders.checkout();
+            if (uploader == null) {
+                return channelOutputStream(node, opts, path);
+            }
+            try {
+                return new BinaryOutputStream(node, uploader, uploaders, outputStreamExecutor, outputStreamPipeCapacity, attributeCache(path), saveController(path));
+            } catch (RejectedExecutionException e) {
+                uploaders.checkin(uploader);
+                logger.debug("no thread available for piping into a binary, falling back to a channel");
+                return channelOutputStream(node, opts, path);
+            }
+        } catch (PathNotFoundException e) {
+            throw new NoSuchFileException(path.toString());
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+    }
+
+    private OutputStream channelOutputStream(final Node node, final Set<OpenOption> options, final Path path) throws Exception {
+        final Set<OpenOption> opts = new HashSet<>(options);
+        opts.add(StandardOpenOption.WRITE);
+        return Channels.newOutputStream(new JcrFileChannel(node, opts, spoolFactory, attributeCache(path), saveController(path), writeBack(path)));
+    }
+
     @Override
     public DirectoryStream<Path> newDirectoryStream(final Path dir, final DirectoryStream.Filter<? super Path> filter) throws IOException {
         logger.info("new directory stream for {}", dir.toString());
@@ -179,34 +576,344 @@ public class JcrFileSystemProvider extends FileSystemProvider {
         }
     }
 
-    // TODO
+    /**
+     * Creates a directory of the configured node type within an existing directory, see
+     * {@link #createDirectories(Path)} for creating missing ancestors in one pass.
+     */
     @Override
-    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
-        logger.info("createDirectory");
+    public void createDirectory(final Path dir, final FileAttribute<?>... attrs) throws IOException {
+        logger.info("createDirectory: {}", dir);
+        checkWritable(dir);
+        if (attrs.length > 0) {
+            throw new UnsupportedOperationException("'" + attrs[0].name() + "' not supported");
+        }
+        final JcrFileSystem fileSystem = (JcrFileSystem) dir.getFileSystem();
+        final DirectoryCache directoryCache = fileSystem.getDirectoryCache();
+        final String path = toJcrPath(dir).toAbsolutePath().toString();
+        final String parentPath = PathUtil.getParent(path);
+        if (parentPath == null) {
+            throw new FileAlreadyExistsException(path);
+        }
+        try {
+            final Session session = fileSystem.getSession();
+            if (directoryCache.getNode(session, path) != null) {
+                throw new FileAlreadyExistsException(path);
+            }
+            Node parent = directoryCache.getNode(session, parentPath);
+            if (parent == null) {
+                if (!session.nodeExists(parentPath)) {
+                    throw new NoSuchFileException(parentPath);
+                }
+                parent = session.getNode(parentPath);
+                if (!isDirectory(parent)) {
+                    throw new FileSystemException(parentPath, null, "not a directory");
+                }
+                directoryCache.add(parent);
+            }
+            final String name = PathUtil.getName(path);
+            if (parent.hasNode(name)) {
+                final Node existing = parent.getNode(name);
+                if (isDirectory(existing)) {
+                    directoryCache.add(existing);
+                }
+                throw new FileAlreadyExistsException(path);
+            }
+            directoryCache.add(parent.addNode(name, directoryNodeType));
+            fileSystem.getAttributeCache().invalidate(path);
+            fileSystem.getSaveController().written(0);
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
     }
 
-    // TODO
+    /**
+     * Creates a directory and its missing ancestors. The deepest existing ancestor is resolved once,
+     * starting from the directory cache, and the missing chain is created below it in one operation.
+     *
+     * @throws FileAlreadyExistsException if the directory or an ancestor exists but is not a directory
+     */
+    void createDirectories(@NotNull final Path dir) throws IOException {
+        logger.info("createDirectories: {}", dir);
+        checkWritable(dir);
+        final JcrFileSystem fileSystem = (JcrFileSystem) dir.getFileSystem();
+        final DirectoryCache directoryCache = fileSystem.getDirectoryCache();
+        final String path = toJcrPath(dir).toAbsolutePath().toString();
+        try {
+            final Session session = fileSystem.getSession();
+            final Deque<String> missing = new ArrayDeque<>();
+            String current = path;
+            Node node;
+            // the root always exists, a known directory ends the walk right away
+            while ((node = directoryCache.getNode(session, current)) == null) {
+                if (session.nodeExists(current)) {
+                    node = session.getNode(current);
+                    if (!isDirectory(node)) {
+                        throw new FileAlreadyExistsException(current);
+                    }
+                    directoryCache.add(node);
+                    break;
+                }
+                missing.push(PathUtil.getName(current));
+                current = PathUtil.getParent(current);
+            }
+            if (missing.isEmpty()) {
+                return;
+            }
+            final String first = ("/".equals(current) ? "" : current) + "/" + missing.peek();
+            for (final String name : missing) {
+                node = node.addNode(name, directoryNodeType);
+                directoryCache.add(node);
+            }
+            fileSystem.getAttributeCache().invalidate(first);
+            fileSystem.getSaveController().written(0);
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Deletes a file or an empty directory, see {@link JcrFileSupportService#deleteTree} for subtrees.
+     */
     @Override
-    public void delete(Path path) throws IOException {
+    public void delete(final Path path) throws IOException {
         logger.info("delete: {}", path);
-        final File file = path.toFile();
-        if (!file.exists()) {
-            throw new NoSuchFileException(path.toString());
-        } else {
-            // TODO delete
+        checkWritable(path);
+        awaitWriteBack(path);
+        final JcrFileSystem fileSystem = (JcrFileSystem) path.getFileSystem();
+        final String absolutePath = toJcrPath(path).toAbsolutePath().toString();
+        try {
+            final Session session = fileSystem.getSession();
+            if (!session.nodeExists(absolutePath)) {
+                throw new NoSuchFileException(absolutePath);
+            }
+            final Node node = session.getNode(absolutePath);
+            if (node.getDepth() == 0) {
+                throw new FileSystemException(absolutePath, null, "root cannot be deleted");
+            }
+            if (isDirectory(node) && node.hasNodes()) {
+                throw new DirectoryNotEmptyException(absolutePath);
+            }
+            node.remove();
+            fileSystem.getAttributeCache().invalidate(absolutePath);
+            fileSystem.getDirectoryCache().invalidateTree(absolutePath);
+            fileSystem.getSaveController().written(0);
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
         }
     }
 
-    // TODO
+    /**
+     * Copies a file into a new file which references the same binaries (within the same repository),
+     * a directory into a new and empty directory, see {@link JcrFileSupportService#copyTree} for subtrees.
+     * The last modified time is kept with {@code COPY_ATTRIBUTES}, the creation time never.
+     */
     @Override
-    public void copy(Path source, Path target, CopyOption... options) throws IOException {
-        logger.info("copy");
+    public void copy(final Path source, final Path target, final CopyOption... options) throws IOException {
+        logger.info("copy: {}, {}", source, target);
+        checkWritable(target);
+        boolean replace = false;
+        boolean copyAttributes = false;
+        for (final CopyOption option : options) {
+            if (option == StandardCopyOption.REPLACE_EXISTING) {
+                replace = true;
+            } else if (option == StandardCopyOption.COPY_ATTRIBUTES) {
+                copyAttributes = true;
+            } else if (option != LinkOption.NOFOLLOW_LINKS) {
+                throw new UnsupportedOperationException("'" + option + "' not supported");
+            }
+        }
+        final String sourcePath = toJcrPath(source).toAbsolutePath().toString();
+        final String targetPath = toJcrPath(target).toAbsolutePath().toString();
+        awaitWriteBack(source);
+        awaitWriteBack(target);
+        final Session sourceSession = ((JcrFileSystem) source.getFileSystem()).getSession();
+        final Session targetSession = ((JcrFileSystem) target.getFileSystem()).getSession();
+        try {
+            if (!sourceSession.nodeExists(sourcePath)) {
+                throw new NoSuchFileException(sourcePath);
+            }
+            if (sourceSession == targetSession && sourcePath.equals(targetPath)) {
+                return;
+            }
+            final Node node = sourceSession.getNode(sourcePath);
+            final boolean file = isFile(node);
+            if (!file && !isDirectory(node)) {
+                throw new FileSystemException(sourcePath, null, "neither a file nor a directory");
+            }
+            if (targetSession.nodeExists(targetPath)) {
+                if (!replace) {
+                    throw new FileAlreadyExistsException(targetPath);
+                }
+                final Node existing = targetSession.getNode(targetPath);
+                if (existing.getDepth() == 0) {
+                    throw new FileSystemException(targetPath, null, "root cannot be replaced");
+                }
+                if (isDirectory(existing) && existing.hasNodes()) {
+                    throw new DirectoryNotEmptyException(targetPath);
+                }
+                existing.remove();
+                ((JcrFileSystem) target.getFileSystem()).getDirectoryCache().invalidateTree(targetPath);
+            }
+            final String parentPath = target.toAbsolutePath().getParent().toString();
+            if (!targetSession.nodeExists(parentPath)) {
+                throw new NoSuchFileException(parentPath);
+            }
+            final Node parent = targetSession.getNode(parentPath);
+            final long size;
+            if (file) {
+                final NodeCopy copy = new NodeCopy(targetSession, sourceSession.getRepository() == targetSession.getRepository(), copyAttributes);
+                copy.copy(node, parent, target.getFileName().toString());
+                size = copy.getBinarySize();
+            } else {
+                // a copied directory is empty, the root is no template for a new node
+                final String nodeType = node.getDepth() == 0 ? directoryNodeType : node.getPrimaryNodeType().getName();
+                parent.addNode(target.getFileName().toString(), nodeType);
+                size = 0;
+            }
+            attributeCache(target).invalidate(targetPath);
+            saveController(target).written(size);
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
     }
 
-    // TODO
+    /**
+     * Moves within a file system without touching binaries: immediately with {@link javax.jcr.Workspace#move}
+     * when the file system saves on close and has no pending changes, otherwise with {@link Session#move}
+     * reported to the save policy. Both are atomic. Between file systems of the same repository the target's
+     * workspace moves, file systems of different repositories copy files and empty directories and remove them.
+     */
     @Override
-    public void move(Path source, Path target, CopyOption... options) throws IOException {
-        logger.info("move");
+    public void move(final Path source, final Path target, final CopyOption... options) throws IOException {
+        logger.info("move: {}, {}", source, target);
+        checkWritable(source);
+        checkWritable(target);
+        boolean replace = false;
+        boolean atomic = false;
+        for (final CopyOption option : options) {
+            if (option == StandardCopyOption.REPLACE_EXISTING) {
+                replace = true;
+            } else if (option == StandardCopyOption.ATOMIC_MOVE) {
+                atomic = true;
+            } else if (option != StandardCopyOption.COPY_ATTRIBUTES && option != LinkOption.NOFOLLOW_LINKS) {
+                throw new UnsupportedOperationException("'" + option + "' not supported");
+            }
+        }
+        final String sourcePath = toJcrPath(source).toAbsolutePath().toString();
+        final String targetPath = toJcrPath(target).toAbsolutePath().toString();
+        final JcrFileSystem sourceFileSystem = (JcrFileSystem) source.getFileSystem();
+        final JcrFileSystem targetFileSystem = (JcrFileSystem) target.getFileSystem();
+        final Session sourceSession = sourceFileSystem.getSession();
+        final Session targetSession = targetFileSystem.getSession();
+        if (sourceSession.getRepository() != targetSession.getRepository()) {
+            if (atomic) {
+                throw new AtomicMoveNotSupportedException(sourcePath, targetPath, "file systems of different repositories");
+            }
+            // check the source before copying, a failed move must not leave a copy behind
+            try {
+                if (!sourceSession.nodeExists(sourcePath)) {
+                    throw new NoSuchFileException(sourcePath);
+                }
+                final Node node = sourceSession.getNode(sourcePath);
+                if (node.getDepth() == 0) {
+                    throw new FileSystemException(sourcePath, null, "root cannot be moved");
+                }
+                if (isDirectory(node) && node.hasNodes()) {
+                    throw new DirectoryNotEmptyException(sourcePath);
+                }
+            } catch (RepositoryException e) {
+                logger.error(e.getMessage(), e);
+                throw new IOException(e);
+            }
+            copy(source, target, replace ? new CopyOption[]{StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES} : new CopyOption[]{StandardCopyOption.COPY_ATTRIBUTES});
+            try {
+                sourceSession.getNode(sourcePath).remove();
+                sourceFileSystem.getAttributeCache().invalidate(sourcePath);
+                sourceFileSystem.getDirectoryCache().invalidateTree(sourcePath);
+                sourceFileSystem.getSaveController().written(0);
+            } catch (RepositoryException e) {
+                logger.error(e.getMessage(), e);
+                throw new IOException(e);
+            }
+            return;
+        }
+        // the same node even on different sessions, replacing the target would remove the source
+        if (sourcePath.equals(targetPath) && sourceSession.getWorkspace().getName().equals(targetSession.getWorkspace().getName())) {
+            try {
+                if (!sourceSession.nodeExists(sourcePath)) {
+                    throw new NoSuchFileException(sourcePath);
+                }
+            } catch (RepositoryException e) {
+                logger.error(e.getMessage(), e);
+                throw new IOException(e);
+            }
+            return;
+        }
+        if (targetPath.startsWith(sourcePath.endsWith("/") ? sourcePath : sourcePath + "/")) {
+            throw new FileSystemException(sourcePath, targetPath, "cannot move into itself");
+        }
+        awaitWriteBackTree(source);
+        awaitWriteBack(target);
+        try {
+            if (!sourceSession.nodeExists(sourcePath)) {
+                throw new NoSuchFileException(sourcePath);
+            }
+            if (sourceSession.getNode(sourcePath).getDepth() == 0) {
+                throw new FileSystemException(sourcePath, null, "root cannot be moved");
+            }
+            final boolean exists = targetSession.nodeExists(targetPath);
+            if (exists) {
+                if (!replace) {
+                    throw new FileAlreadyExistsException(targetPath);
+                }
+                final Node existing = targetSession.getNode(targetPath);
+                if (existing.getDepth() == 0) {
+                    throw new FileSystemException(targetPath, null, "root cannot be replaced");
+                }
+                if (isDirectory(existing) && existing.hasNodes()) {
+                    throw new DirectoryNotEmptyException(targetPath);
+                }
+            }
+            final String parentPath = target.toAbsolutePath().getParent().toString();
+            if (!targetSession.nodeExists(parentPath)) {
+                throw new NoSuchFileException(parentPath);
+            }
+            if (sourceSession != targetSession) {
+                if (exists && atomic) {
+                    throw new AtomicMoveNotSupportedException(sourcePath, targetPath, "replacing between file systems takes two saves");
+                }
+                // workspace operations see saved content only
+                jcrFileSupportService.commit(sourceFileSystem);
+                jcrFileSupportService.commit(targetFileSystem);
+                if (exists) {
+                    targetSession.getNode(targetPath).remove();
+                    targetFileSystem.getSaveController().commit();
+                }
+                targetSession.getWorkspace().move(sourcePath, targetPath);
+                // the source session sees the move on refresh, which must not discard its changes
+                sourceSession.refresh(true);
+            } else if (!exists && sourceFileSystem.getSaveController().getPolicy() == SavePolicy.CLOSE && !sourceSession.hasPendingChanges()) {
+                // no transient space involved
+                targetSession.getWorkspace().move(sourcePath, targetPath);
+            } else {
+                if (exists) {
+                    targetSession.getNode(targetPath).remove();
+                }
+                targetSession.move(sourcePath, targetPath);
+                targetFileSystem.getSaveController().written(0);
+            }
+            sourceFileSystem.getAttributeCache().invalidateTree(sourcePath);
+            targetFileSystem.getAttributeCache().invalidateTree(targetPath);
+            sourceFileSystem.getDirectoryCache().invalidateTree(sourcePath);
+            targetFileSystem.getDirectoryCache().invalidateTree(targetPath);
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
     }
 
     // TODO
@@ -226,13 +933,31 @@ public class JcrFileSystemProvider extends FileSystemProvider {
     @Override
     public FileStore getFileStore(final Path path) throws IOException {
         logger.info("getting file store for {}", path.toString());
-        return jcrFileStore;
+        return ((JcrFileSystem) path.getFileSystem()).getFileStore();
     }
 
-    // TODO
+    /**
+     * Checks existence and refuses {@code WRITE} on read-only file systems, permissions are not checked.
+     */
     @Override
     public void checkAccess(final Path path, final AccessMode... modes) throws IOException {
         logger.info("checking access: {}", path.toString());
+        final JcrFileSystem fileSystem = (JcrFileSystem) path.getFileSystem();
+        final String absolutePath = toJcrPath(path).toAbsolutePath().toString();
+        for (final AccessMode mode : modes) {
+            if (mode == AccessMode.WRITE && fileSystem.isReadOnly()) {
+                throw new AccessDeniedException(absolutePath, null, "read-only file system");
+            }
+        }
+        try {
+            // not answered from the directory cache, its entries may be stale
+            if (!fileSystem.getSession().nodeExists(absolutePath)) {
+                throw new NoSuchFileException(absolutePath);
+            }
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
     }
 
     // TODO
@@ -247,9 +972,16 @@ public class JcrFileSystemProvider extends FileSystemProvider {
     public <A extends BasicFileAttributes> A readAttributes(final Path path, final Class<A> type, final LinkOption... options) throws IOException {
         logger.info("reading attributes: {}, {}, {}", path, type, options);
         if (type == BasicFileAttributes.class) {
+            awaitWriteBack(path);
+            if (path instanceof JcrPath) {
+                final AttributeSnapshot snapshot = ((JcrPath) path).getSnapshot();
+                if (snapshot != null && attributeCache(path).isCurrent(path.toAbsolutePath().toString(), snapshot.getGeneration(), snapshot.getCreated())) {
+                    return type.cast(snapshot.getAttributes());
+                }
+            }
             final BasicFileAttributes basicFileAttributes = jcrFileSupportService.fromPath(path);
             logger.info("basic file attributes: {}", basicFileAttributes);
-            return (A) basicFileAttributes;
+            return type.cast(basicFileAttributes);
         } else {
             throw new IOException("Unsupported file attributes type: " + type);
         }
@@ -268,6 +1000,50 @@ public class JcrFileSystemProvider extends FileSystemProvider {
         logger.info("setAttribute");
     }
 
+    private static JcrPath toJcrPath(final Path path) {
+        if (!(path instanceof JcrPath)) {
+            throw new ProviderMismatchException("not a JCR path: " + path);
+        }
+        return (JcrPath) path;
+    }
+
+    private static boolean isReadOnly(final Set<? extends OpenOption> options) {
+        return !options.contains(StandardOpenOption.WRITE) && !options.contains(StandardOpenOption.APPEND);
+    }
+
+    private static AttributeCache attributeCache(final Path path) {
+        return ((JcrFileSystem) path.getFileSystem()).getAttributeCache();
+    }
+
+    private static SaveController saveController(final Path path) {
+        return ((JcrFileSystem) path.getFileSystem()).getSaveController();
+    }
+
+    private static WriteBack writeBack(final Path path) {
+        return ((JcrFileSystem) path.getFileSystem()).getWriteBack();
+    }
+
+    private static void awaitWriteBackTree(final Path path) throws IOException {
+        final WriteBack writeBack = writeBack(path);
+        if (writeBack != null) {
+            writeBack.awaitTree(path.toAbsolutePath().toString());
+        }
+    }
+
+    /**
+     * Waits for the pending write-backs of the path, so a file system reads its own writes.
+     */
+    private static void awaitWriteBack(final Path path) throws IOException {
+        final WriteBack writeBack = writeBack(path);
+        if (writeBack != null) {
+            writeBack.await(path.toAbsolutePath().toString());
+        }
+    }
+
+    NodeTypeClassifier.Classification classify(final Node node) throws RepositoryException {
+        return nodeTypeClassifier.classify(node);
+    }
+
     boolean isFile(final Node node) throws RepositoryException {
         return jcrFileSupportService.isFile(node);
     }
@@ -276,16 +1052,13 @@ public class JcrFileSystemProvider extends FileSystemProvider {
         return jcrFileSupportService.isDirectory(node);
     }
 
-    boolean isInCache(final Session session) {
-        return cache.containsKey(session);
-    }
-
-    void putIntoCache(final JcrFileSystem fileSystem) {
-        cache.put(fileSystem.getSession(), fileSystem);
+    void unregister(final JcrFileSystem fileSystem) {
+        registry.unregister(fileSystem);
     }
 
-    void removeFromCache(final JcrFileSystem fileSystem) {
-        cache.remove(fileSystem.getSession());
+    @NotNull
+    FileSystemRegistry getRegistry() {
+        return registry;
     }
 
 }
@@ -18,234 +18,381 @@
  */
 package org.apache.sling.commons.jcr.file.internal;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
+import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Path held as a single normalized string, the offsets of its names are computed on first use.
+ *
+ * Paths derived from normalized ones (parents, names, resolved children) are created
+ * through the trusted constructor and not normalized again.
+ */
 public class JcrPath implements Path {
 
+    private static final String PARENT = "..";
+
+    private static final Logger logger = LoggerFactory.getLogger(JcrPath.class);
+
     private final JcrFileSystem fileSystem;
 
     private final String path;
 
-    private final List<String> names;
+    // false if the path keeps . or .. names which could not be resolved
+    private final boolean normalized;
 
-    private final Logger logger = LoggerFactory.getLogger(JcrPath.class);
+    // attributes captured by a directory stream, if any
+    private final AttributeSnapshot snapshot;
+
+    // computed on first use, volatile to publish the filled array to other threads
+    private volatile int[] offsets;
+
+    private int hash;
 
     JcrPath(final JcrFileSystem fileSystem, final String path) {
+        final String normalized = PathUtil.normalize(path);
         this.fileSystem = fileSystem;
-        this.path = PathUtil.normalize(path);
-        this.names = names(this.path);
-        logger.info("new path: {}", path);
+        this.path = normalized == null ? collapse(path) : normalized;
+        this.normalized = normalized != null;
+        this.snapshot = null;
+    }
+
+    /**
+     * Trusted constructor, the path must be normalized already, e.g. taken from a node.
+     */
+    JcrPath(final JcrFileSystem fileSystem, final String path, final AttributeSnapshot snapshot) {
+        this(fileSystem, path, true, snapshot);
+    }
+
+    /**
+     * Trusted factory without attributes, the path must be normalized already.
+     */
+    static JcrPath normalized(final JcrFileSystem fileSystem, final String path) {
+        return new JcrPath(fileSystem, path, true, null);
     }
 
     JcrPath(final JcrFileSystem fileSystem, final String first, final String... more) {
+        this(fileSystem, join(first, more));
+    }
+
+    private JcrPath(final JcrFileSystem fileSystem, final String path, final boolean normalized, final AttributeSnapshot snapshot) {
         this.fileSystem = fileSystem;
-        this.path = PathUtil.normalize(first + JcrFileSystem.SEPARATOR + String.join(JcrFileSystem.SEPARATOR, more));
-        this.names = names(this.path);
-        logger.info("new path: {}", path);
-    }
-
-    private List<String> names(final String path) {
-        final List<String> names = new ArrayList<>();
-        if (path != null) {
-            final String[] strings = path.split("/");
-            for (final String string : strings) {
-                if (!string.isEmpty()) {
-                    names.add(string);
+        this.path = path;
+        this.normalized = normalized;
+        this.snapshot = snapshot;
+    }
+
+    private JcrPath derive(final String path) {
+        return new JcrPath(fileSystem, path, normalized, null);
+    }
+
+    private static String join(final String first, final String... more) {
+        if (more.length == 0) {
+            return first;
+        }
+        final StringBuilder builder = new StringBuilder(first);
+        for (final String name : more) {
+            if (!name.isEmpty()) {
+                if (builder.length() > 0) {
+                    builder.append(JcrFileSystem.SEPARATOR);
                 }
+                builder.append(name);
             }
         }
-        return names;
+        return builder.toString();
+    }
+
+    // removes redundant separators and . names of a path keeping .. names
+    private static String collapse(final String path) {
+        final StringBuilder builder = new StringBuilder(path.length());
+        if (path.startsWith("/")) {
+            builder.append('/');
+        }
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+            if (end > start && !(end - start == 1 && path.charAt(start) == '.')) {
+                if (builder.length() > 0 && builder.charAt(builder.length() - 1) != '/') {
+                    builder.append('/');
+                }
+                builder.append(path, start, end);
+            }
+            start = end + 1;
+        }
+        return builder.toString();
+    }
+
+    private int[] offsets() {
+        int[] offsets = this.offsets;
+        if (offsets == null) {
+            final int start = isAbsolute() ? 1 : 0;
+            int count = 0;
+            if (path.length() > start) {
+                count = 1;
+                for (int i = start; i < path.length(); i++) {
+                    if (path.charAt(i) == '/') {
+                        count++;
+                    }
+                }
+            }
+            offsets = new int[count];
+            int index = 0;
+            if (count > 0) {
+                offsets[index++] = start;
+                for (int i = start; i < path.length(); i++) {
+                    if (path.charAt(i) == '/') {
+                        offsets[index++] = i + 1;
+                    }
+                }
+            }
+            this.offsets = offsets;
+        }
+        return offsets;
+    }
+
+    // end (exclusive) of the name at the given index
+    private int end(final int index) {
+        final int[] offsets = offsets();
+        return index + 1 < offsets.length ? offsets[index + 1] - 1 : path.length();
+    }
+
+    private static JcrPath checkPath(final Path path) {
+        if (path == null) {
+            throw new NullPointerException();
+        }
+        if (!(path instanceof JcrPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (JcrPath) path;
     }
 
     @Override
     public FileSystem getFileSystem() {
-        logger.info("getting file system for {}", path);
         return fileSystem;
     }
 
     @Override
     public boolean isAbsolute() {
-        logger.info("isAbsolute: {}", path);
-        return path.startsWith("/");
+        return !path.isEmpty() && path.charAt(0) == '/';
     }
 
     @Override
     public Path getRoot() {
-        logger.info("getting root for {}", path);
-        return new JcrPath(fileSystem, "/");
+        return isAbsolute() ? fileSystem.getRootDirectories().iterator().next() : null;
     }
 
     @Override
     public Path getFileName() {
-        logger.info("getting file name for {}", path);
-        if (names.size() == 0) {
+        final int[] offsets = offsets();
+        if (offsets.length == 0) {
             return null;
-        } else {
-            final String name = names.get(names.size() - 1);
-            logger.info("file name: {}", name);
-            return new JcrPath(fileSystem, name);
         }
+        if (offsets.length == 1 && !isAbsolute()) {
+            return this;
+        }
+        return derive(path.substring(offsets[offsets.length - 1]));
     }
 
     @Override
     public Path getParent() {
-        logger.info("getting parent for {}", path);
-        final String parent = PathUtil.getParent(path);
-        if (parent == null) {
+        final int[] offsets = offsets();
+        if (offsets.length == 0) {
             return null;
         }
-        return new JcrPath(fileSystem, parent);
+        if (offsets.length == 1) {
+            return getRoot();
+        }
+        return derive(path.substring(0, offsets[offsets.length - 1] - 1));
     }
 
     @Override
     public int getNameCount() {
-        logger.info("getting name count: {}", path);
-        return names.size();
+        return offsets().length;
     }
 
     @Override
-    public Path getName(int index) {
-        logger.info("getting name: {}", path);
-        if (names.size() == 0) {
-            throw new IllegalArgumentException("TODO");
-        }
-        if (index < 0) {
-            throw new IllegalArgumentException("TODO");
-        }
-        if (index >= names.size()) {
-            throw new IllegalArgumentException("TODO");
+    public Path getName(final int index) {
+        final int[] offsets = offsets();
+        if (index < 0 || index >= offsets.length) {
+            throw new IllegalArgumentException("invalid name index " + index + " for " + path);
         }
-        return new JcrPath(fileSystem, names.get(index));
+        return derive(path.substring(offsets[index], end(index)));
     }
 
-    // TODO
     @Override
-    public Path subpath(int beginIndex, int endIndex) {
-        logger.info("subpath: {}", path);
-        return null;
+    public Path subpath(final int beginIndex, final int endIndex) {
+        final int[] offsets = offsets();
+        if (beginIndex < 0 || beginIndex >= offsets.length || endIndex > offsets.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException("invalid subpath " + beginIndex + ", " + endIndex + " for " + path);
+        }
+        return derive(path.substring(offsets[beginIndex], end(endIndex - 1)));
     }
 
-    // TODO
     @Override
-    public boolean startsWith(Path other) {
-        logger.info("startsWith: {}", path);
-        return false;
+    public boolean startsWith(final Path other) {
+        if (!(other instanceof JcrPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        final String prefix = ((JcrPath) other).path;
+        if (prefix.length() > path.length() || prefix.isEmpty() != path.isEmpty() || !path.startsWith(prefix)) {
+            return false;
+        }
+        return prefix.length() == path.length() || "/".equals(prefix) || path.charAt(prefix.length()) == '/';
     }
 
-    // TODO
     @Override
-    public boolean startsWith(String other) {
-        logger.info("startsWith: {}", path);
-        return false;
+    public boolean startsWith(final String other) {
+        return startsWith(fileSystem.getPath(other));
     }
 
-    // TODO
     @Override
-    public boolean endsWith(Path other) {
-        logger.info("endsWith: {}", path);
-        return false;
+    public boolean endsWith(final Path other) {
+        if (!(other instanceof JcrPath) || other.getFileSystem() != fileSystem) {
+            return false;
+        }
+        final JcrPath that = (JcrPath) other;
+        if (that.isAbsolute()) {
+            return path.equals(that.path);
+        }
+        final String suffix = that.path;
+        if (suffix.isEmpty()) {
+            return path.isEmpty();
+        }
+        if (suffix.length() > path.length() || !path.endsWith(suffix)) {
+            return false;
+        }
+        return suffix.length() == path.length() || path.charAt(path.length() - suffix.length() - 1) == '/';
     }
 
-    // TODO
     @Override
-    public boolean endsWith(String other) {
-        logger.info("endsWith: {}", path);
-        return false;
+    public boolean endsWith(final String other) {
+        return endsWith(fileSystem.getPath(other));
     }
 
     @Override
     public Path normalize() {
-        logger.info("normalizing path {}", path);
-        return new JcrPath(fileSystem, PathUtil.normalize(path));
+        return this;
     }
 
-    // TODO
     @Override
-    public Path resolve(Path other) {
-        logger.info("resolving given path {} against this path {}", other, this);
-        if (other.isAbsolute()) {
-            return other;
+    public Path resolve(final Path other) {
+        final JcrPath that = checkPath(other);
+        if (that.isAbsolute()) {
+            return that;
+        }
+        if (that.path.isEmpty()) {
+            return this;
         }
-        if (this.path.endsWith("/")) {
-            final String path = this.path.concat(other.toString());
-            return new JcrPath(fileSystem, path);
-        } else {
-            final String path = String.format("%s/%s", this.path, other.toString());
-            return new JcrPath(fileSystem, path);
+        if (path.isEmpty()) {
+            return that;
         }
+        final String resolved = "/".equals(path) ? path.concat(that.path) : path + JcrFileSystem.SEPARATOR + that.path;
+        if (normalized && that.normalized) {
+            return normalized(fileSystem, resolved);
+        }
+        // a .. name may resolve against this path now
+        return new JcrPath(fileSystem, resolved);
     }
 
-    // TODO
     @Override
-    public Path resolve(String other) {
-        logger.info("resolving given path {} against this path {}", other, this);
-        final Path path = new JcrPath(fileSystem, other); // TODO InvalidPathException
-        return resolve(path);
+    public Path resolve(final String other) {
+        return resolve(fileSystem.getPath(other));
     }
 
-    // TODO
     @Override
-    public Path resolveSibling(Path other) {
-        logger.info("resolveSibling: {}", other);
-        return null;
+    public Path resolveSibling(final Path other) {
+        checkPath(other);
+        final Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
     }
 
-    // TODO
     @Override
-    public Path resolveSibling(String other) {
-        logger.info("resolveSibling: {}", other);
-        return null;
+    public Path resolveSibling(final String other) {
+        return resolveSibling(fileSystem.getPath(other));
     }
 
-    // TODO
     @Override
-    public Path relativize(Path other) {
-        logger.info("relativize: {}", other);
-        return null;
+    public Path relativize(final Path other) {
+        final JcrPath that = checkPath(other);
+        if (isAbsolute() != that.isAbsolute()) {
+            throw new IllegalArgumentException("'other' is different type of Path");
+        }
+        if (path.equals(that.path)) {
+            return normalized(fileSystem, "");
+        }
+        final int count = getNameCount();
+        final int otherCount = that.getNameCount();
+        int common = 0;
+        while (common < count && common < otherCount && sameName(that, common)) {
+            common++;
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (int i = common; i < count; i++) {
+            if (builder.length() > 0) {
+                builder.append(JcrFileSystem.SEPARATOR);
+            }
+            builder.append(PARENT);
+        }
+        if (common < otherCount) {
+            if (builder.length() > 0) {
+                builder.append(JcrFileSystem.SEPARATOR);
+            }
+            builder.append(that.path, that.offsets()[common], that.path.length());
+        }
+        return new JcrPath(fileSystem, builder.toString(), common == count && that.normalized, null);
+    }
+
+    private boolean sameName(final JcrPath that, final int index) {
+        final int start = offsets()[index];
+        final int length = end(index) - start;
+        final int otherStart = that.offsets()[index];
+        return length == that.end(index) - otherStart && path.regionMatches(start, that.path, otherStart, length);
     }
 
-    // TODO
     @Override
     public URI toUri() {
-        logger.info("toUri: {}", path);
-        return null;
+        try {
+            return new URI(fileSystem.provider().getScheme(), null, toAbsolutePath().toString(), null);
+        } catch (URISyntaxException e) {
+            logger.error(e.getMessage(), e);
+            throw new IllegalStateException(e);
+        }
     }
 
     @Override
     public Path toAbsolutePath() {
-        logger.info("toAbsolutePath: {}", path);
         if (isAbsolute()) {
             return this;
-        } else {
-            return new JcrPath(fileSystem, "/".concat(path));
         }
+        return new JcrPath(fileSystem, "/".concat(path), normalized, snapshot);
     }
 
-    // TODO
     @Override
-    public Path toRealPath(LinkOption... options) throws IOException {
-        logger.info("toRealPath: {}", path);
-        return null;
+    public Path toRealPath(final LinkOption... options) throws IOException {
+        final Path path = toAbsolutePath();
+        fileSystem.provider().checkAccess(path);
+        return path;
     }
 
     @Override
     public JcrFile toFile() {
-        logger.info("to file: {}", path);
-        return new JcrFile(fileSystem, path);
+        return new JcrFile(this);
     }
 
     // TODO
@@ -262,18 +409,57 @@ public class JcrPath implements Path {
         return null;
     }
 
-    // TODO
     @Override
     public Iterator<Path> iterator() {
-        logger.info("iterator");
-        return null;
+        return new Iterator<Path>() {
+
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < getNameCount();
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return getName(index++);
+            }
+
+        };
+    }
+
+    @Override
+    public int compareTo(@NotNull final Path other) {
+        return path.compareTo(((JcrPath) other).path);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof JcrPath)) {
+            return false;
+        }
+        final JcrPath that = (JcrPath) obj;
+        return fileSystem == that.fileSystem && path.equals(that.path);
     }
 
-    // TODO
     @Override
-    public int compareTo(Path other) {
-        logger.info("compareTo");
-        return 0;
+    public int hashCode() {
+        int hash = this.hash;
+        if (hash == 0) {
+            hash = path.hashCode();
+            this.hash = hash;
+        }
+        return hash;
+    }
+
+    AttributeSnapshot getSnapshot() {
+        return snapshot;
     }
 
     @Override
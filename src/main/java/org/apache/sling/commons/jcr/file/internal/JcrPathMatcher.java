@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compiled {@code glob:} or {@code regex:} path matcher which exposes the parts a
+ * repository query can use: the literal path prefix (the deepest directory fixed by the
+ * pattern) and a JCR-SQL2 {@code LIKE} pattern for the name of the matched nodes.
+ *
+ * Globs follow {@link java.nio.file.FileSystem#getPathMatcher(String)}: {@code *} and
+ * {@code ?} do not cross directory boundaries, {@code **} does, {@code [...]} and
+ * {@code {a,b}} are supported, {@code \} escapes.
+ */
+class JcrPathMatcher implements PathMatcher {
+
+    static final String GLOB = "glob";
+
+    static final String REGEX = "regex";
+
+    private static final String GLOB_META = "\\*?[{";
+
+    private static final String REGEX_META = ".^$?*+[]{}()|\\";
+
+    private final Pattern pattern;
+
+    private final String prefix;
+
+    private final String namePattern;
+
+    private JcrPathMatcher(final Pattern pattern, final String prefix, final String namePattern) {
+        this.pattern = pattern;
+        this.prefix = prefix;
+        this.namePattern = namePattern;
+    }
+
+    /**
+     * @param syntaxAndPattern {@code glob:} or {@code regex:} followed by the pattern
+     * @throws IllegalArgumentException      if the argument is malformed
+     * @throws UnsupportedOperationException if the syntax is not supported
+     */
+    @NotNull
+    static JcrPathMatcher compile(@NotNull final String syntaxAndPattern) {
+        final int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("syntax and pattern expected: " + syntaxAndPattern);
+        }
+        final String syntax = syntaxAndPattern.substring(0, colon);
+        final String input = syntaxAndPattern.substring(colon + 1);
+        if (GLOB.equalsIgnoreCase(syntax)) {
+            return new JcrPathMatcher(Pattern.compile(globToRegex(input)), prefix(input, GLOB_META), nameLikePattern(input));
+        } else if (REGEX.equalsIgnoreCase(syntax)) {
+            try {
+                return new JcrPathMatcher(Pattern.compile(input), prefix(input, REGEX_META), null);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        } else {
+            throw new UnsupportedOperationException("syntax '" + syntax + "' not supported");
+        }
+    }
+
+    @Override
+    public boolean matches(final Path path) {
+        return pattern.matcher(path.toString()).matches();
+    }
+
+    /**
+     * @return the deepest absolute directory all matching paths are in, {@code /} if the
+     * pattern is absolute without a literal directory, or {@code null} if the pattern is relative
+     */
+    @Nullable
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return a {@code LIKE} pattern (with {@code \} as escape character) the name of
+     * every matching path satisfies, or {@code null} if the name is not constrained
+     * in a way {@code LIKE} can express
+     */
+    @Nullable
+    String getNamePattern() {
+        return namePattern;
+    }
+
+    @Override
+    public String toString() {
+        return pattern.pattern();
+    }
+
+    // directory part of the pattern before the first metacharacter
+    private static String prefix(final String pattern, final String meta) {
+        if (!isAbsolute(pattern, meta == REGEX_META)) {
+            return null;
+        }
+        if (meta == REGEX_META && alternatives(pattern, '|', true).size() > 1) {
+            // an alternative may start anywhere
+            return "/";
+        }
+        final String input = meta == REGEX_META && pattern.startsWith("^") ? pattern.substring(1) : pattern;
+        int end = input.length();
+        for (int i = 0; i < input.length(); i++) {
+            if (meta.indexOf(input.charAt(i)) != -1) {
+                end = i;
+                break;
+            }
+        }
+        if (end == input.length()) {
+            // a literal path, its parent is the directory
+            end = input.length() - 1;
+        } else if (meta == REGEX_META) {
+            if ("?*+{".indexOf(input.charAt(end)) != -1) {
+                // a quantifier makes the preceding character optional
+                end--;
+            }
+        }
+        final int slash = input.lastIndexOf('/', end - 1);
+        return slash <= 0 ? "/" : input.substring(0, slash);
+    }
+
+    // whether every path matched starts with a slash, as far as the start of the pattern tells
+    private static boolean isAbsolute(final String input, final boolean regex) {
+        final String pattern = regex && input.startsWith("^") ? input.substring(1) : input;
+        if (pattern.isEmpty()) {
+            return false;
+        }
+        if (regex) {
+            final List<String> alternatives = alternatives(pattern, '|', true);
+            if (alternatives.size() > 1) {
+                return alternatives.stream().allMatch(alternative -> isAbsolute(alternative, true));
+            }
+            if (pattern.startsWith("(")) {
+                final int close = closingParenthesis(pattern);
+                if (close == -1 || close + 1 < pattern.length() && "?*{".indexOf(pattern.charAt(close + 1)) != -1) {
+                    // an optional group
+                    return false;
+                }
+                final String group = pattern.substring(1, close);
+                return isAbsolute(group.startsWith("?:") ? group.substring(2) : group, true);
+            }
+            return pattern.startsWith("/") && (pattern.length() == 1 || "?*{".indexOf(pattern.charAt(1)) == -1);
+        }
+        if (pattern.startsWith("{")) {
+            // groups do not nest in globs
+            final int close = pattern.indexOf('}');
+            return close != -1 && alternatives(pattern.substring(1, close), ',', false).stream().allMatch(alternative -> alternative.startsWith("/"));
+        }
+        return pattern.startsWith("/");
+    }
+
+    // splits at separators outside of character classes, escapes and regex groups
+    private static List<String> alternatives(final String input, final char separator, final boolean regex) {
+        final List<String> alternatives = new ArrayList<>();
+        int depth = 0;
+        boolean inClass = false;
+        int start = 0;
+        for (int i = 0; i < input.length(); i++) {
+            final char c = input.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (regex && c == '(') {
+                depth++;
+            } else if (regex && c == ')') {
+                depth--;
+            } else if (c == separator && depth == 0) {
+                alternatives.add(input.substring(start, i));
+                start = i + 1;
+            }
+        }
+        alternatives.add(input.substring(start));
+        return alternatives;
+    }
+
+    // index of the parenthesis closing the group the regex starts with
+    private static int closingParenthesis(final String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // the last segment of a glob translated to LIKE, when it uses only literals, * and ?
+    private static String nameLikePattern(final String glob) {
+        final String name = glob.substring(glob.lastIndexOf('/') + 1);
+        // a group closing in the last segment may have started in an earlier one
+        if (name.isEmpty() || name.contains("**") || name.indexOf('}') != -1) {
+            return null;
+        }
+        final StringBuilder like = new StringBuilder();
+        boolean constrained = false;
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            switch (c) {
+                case '*':
+                    like.append('%');
+                    break;
+                case '?':
+                    like.append('_');
+                    constrained = true;
+                    break;
+                case '[':
+                case '{':
+                case '\\':
+                    return null;
+                case '%':
+                case '_':
+                    like.append('\\').append(c);
+                    constrained = true;
+                    break;
+                default:
+                    like.append(c);
+                    constrained = true;
+            }
+        }
+        return constrained ? like.toString() : null;
+    }
+
+    private static String globToRegex(final String glob) {
+        final StringBuilder regex = new StringBuilder("^");
+        boolean inGroup = false;
+        int i = 0;
+        while (i < glob.length()) {
+            final char c = glob.charAt(i++);
+            switch (c) {
+                case '\\':
+                    if (i == glob.length()) {
+                        throw new IllegalArgumentException("no character to escape at end of " + glob);
+                    }
+                    final char next = glob.charAt(i++);
+                    if (REGEX_META.indexOf(next) != -1) {
+                        regex.append('\\');
+                    }
+                    regex.append(next);
+                    break;
+                case '/':
+                    regex.append(c);
+                    break;
+                case '[':
+                    regex.append("[[^/]&&[");
+                    if (i < glob.length() && glob.charAt(i) == '^') {
+                        regex.append("\\^");
+                        i++;
+                    } else if (i < glob.length() && glob.charAt(i) == '!') {
+                        regex.append('^');
+                        i++;
+                    }
+                    boolean closed = false;
+                    while (i < glob.length()) {
+                        final char d = glob.charAt(i++);
+                        if (d == ']') {
+                            closed = true;
+                            break;
+                        }
+                        if (d == '/') {
+                            throw new IllegalArgumentException("explicit 'name separator' in class in " + glob);
+                        }
+                        if (d == '\\' || d == '[' || d == '&' && i < glob.length() && glob.charAt(i) == '&') {
+                            regex.append('\\');
+                        }
+                        regex.append(d);
+                    }
+                    if (!closed) {
+                        throw new IllegalArgumentException("missing ']' in " + glob);
+                    }
+                    regex.append("]]");
+                    break;
+                case '{':
+                    if (inGroup) {
+                        throw new IllegalArgumentException("cannot nest groups in " + glob);
+                    }
+                    regex.append("(?:(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append("))");
+                        inGroup = false;
+                    } else {
+                        regex.append('}');
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? ")|(?:" : ",");
+                    break;
+                case '*':
+                    if (i < glob.length() && glob.charAt(i) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                default:
+                    if (REGEX_META.indexOf(c) != -1) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException("missing '}' in " + glob);
+        }
+        return regex.append('$').toString();
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read-only channel which serves all reads straight from the JCR binary,
+ * a temporary file is only involved for memory mapping.
+ */
+public class JcrReadOnlyFileChannel extends FileChannel {
+
+    private final String path;
+
+    private final BinaryReader reader;
+
+    private final SpoolFactory spoolFactory;
+
+    private long position;
+
+    private final Logger logger = LoggerFactory.getLogger(JcrReadOnlyFileChannel.class);
+
+    JcrReadOnlyFileChannel(final Node node, final SpoolFactory spoolFactory) throws RepositoryException {
+        this.path = node.getPath();
+        this.spoolFactory = spoolFactory;
+        logger.info("JcrReadOnlyFileChannel: {}", path);
+        this.reader = new BinaryReader(node.getNode("jcr:content").getProperty("jcr:data").getBinary());
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        ensureOpen();
+        final int read = reader.read(dst, position, true);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(final ByteBuffer[] dsts, final int offset, final int length) throws IOException {
+        if (offset < 0 || length < 0 || offset > dsts.length - length) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureOpen();
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            final int read = read(dsts[i]);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return total == 0 && position >= reader.size() ? -1 : total;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst, final long position) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("negative position: " + position);
+        }
+        ensureOpen();
+        return reader.read(dst, position, false);
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public int write(final ByteBuffer src, final long position) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    @Override
+    public FileChannel position(final long newPosition) throws IOException {
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("negative position: " + newPosition);
+        }
+        ensureOpen();
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return reader.size();
+    }
+
+    @Override
+    public FileChannel truncate(final long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public void force(final boolean metaData) throws IOException {
+        ensureOpen();
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, final WritableByteChannel target) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("negative position or count");
+        }
+        ensureOpen();
+        logger.info("transferTo {} {}", position, count);
+        return reader.transferTo(position, count, target, spoolFactory.getTransferPool());
+    }
+
+    @Override
+    public long transferFrom(final ReadableByteChannel src, final long position, final long count) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    /**
+     * Maps a region of the binary, which is materialized into a temporary file on
+     * the first call. Private mappings are copy-on-write and never reach the binary.
+     */
+    @Override
+    public MappedByteBuffer map(final MapMode mode, final long position, final long size) throws IOException {
+        logger.info("map {} {} {}", mode, position, size);
+        if (mode == MapMode.READ_WRITE) {
+            throw new NonWritableChannelException();
+        }
+        if (position < 0 || size < 0 || size > Integer.MAX_VALUE || position + size < 0) {
+            throw new IllegalArgumentException("invalid region: " + position + ", " + size);
+        }
+        ensureOpen();
+        if (position + size > reader.size()) {
+            throw new IOException("cannot map beyond the end of a read-only channel");
+        }
+        return reader.materialize(spoolFactory).map(mode, position, size);
+    }
+
+    /**
+     * JCR has no byte range locking: shared locks are local to this channel,
+     * exclusive locks require a writable channel.
+     */
+    @Override
+    public FileLock lock(final long position, final long size, final boolean shared) throws IOException {
+        logger.info("lock {} {} {}", position, size, shared);
+        return tryLock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(final long position, final long size, final boolean shared) throws IOException {
+        logger.info("tryLock {} {} {}", position, size, shared);
+        if (position < 0 || size < 0 || position + size < 0) {
+            throw new IllegalArgumentException("invalid region: " + position + ", " + size);
+        }
+        ensureOpen();
+        if (!shared) {
+            throw new NonWritableChannelException();
+        }
+        return new ChannelLock(this, position, size, true);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+        logger.info("implCloseChannel: {}", path);
+        reader.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+
+}
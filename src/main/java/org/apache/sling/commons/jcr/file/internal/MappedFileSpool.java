@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jetbrains.annotations.NotNull;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Spool backed by a memory-mapped temporary file, the mapping grows by doubling
+ * up to the given capacity.
+ */
+class MappedFileSpool implements MappableSpool {
+
+    private static final int ALIGNMENT = 64 * 1024;
+
+    private final Path file;
+
+    private final FileChannel fileChannel;
+
+    private final long capacity;
+
+    private MappedByteBuffer buffer;
+
+    private long size;
+
+    MappedFileSpool(@NotNull final Path file, final long capacity) throws IOException {
+        this.file = file;
+        this.capacity = Math.min(capacity, Integer.MAX_VALUE);
+        this.fileChannel = FileChannel.open(file, READ, WRITE);
+    }
+
+    @Override
+    public boolean reserve(final long size) throws IOException {
+        if (size > capacity) {
+            return false;
+        }
+        final long mapped = buffer == null ? 0 : buffer.capacity();
+        if (size > mapped) {
+            final long aligned = (Math.max(size, mapped * 2) + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(aligned, capacity));
+        }
+        return true;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int read(@NotNull final ByteBuffer dst, final long position) {
+        if (position >= size) {
+            return -1;
+        }
+        final int length = (int) Math.min(dst.remaining(), size - position);
+        buffer.limit((int) position + length).position((int) position);
+        dst.put(buffer);
+        return length;
+    }
+
+    @Override
+    public int write(@NotNull final ByteBuffer src, final long position) throws IOException {
+        final int length = src.remaining();
+        if (!reserve(position + length)) {
+            throw new IOException("mapped spool exhausted");
+        }
+        // the mapped file is zero-filled beyond its previous length, gaps left by a truncate are not
+        for (long i = size; i < position; i++) {
+            buffer.put((int) i, (byte) 0);
+        }
+        buffer.limit(buffer.capacity()).position((int) position);
+        buffer.put(src);
+        size = Math.max(size, position + length);
+        return length;
+    }
+
+    @Override
+    public void truncate(final long size) {
+        if (size < this.size) {
+            this.size = size;
+        }
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, @NotNull final WritableByteChannel target) throws IOException {
+        if (position >= size) {
+            return 0;
+        }
+        final long end = count > size - position ? size : position + count;
+        buffer.limit((int) end).position((int) position);
+        long done = 0;
+        while (buffer.hasRemaining()) {
+            final int written = target.write(buffer);
+            if (written == 0) {
+                break;
+            }
+            done += written;
+        }
+        return done;
+    }
+
+    @Override
+    public long transferFrom(@NotNull final ReadableByteChannel src, final long position, final long count) throws IOException {
+        if (position > size || buffer == null) {
+            return 0;
+        }
+        // transfers into the reserved mapping only, the caller reserves what it expects
+        final long end = count > buffer.capacity() - position ? buffer.capacity() : position + count;
+        buffer.limit((int) end).position((int) position);
+        long done = 0;
+        while (buffer.hasRemaining()) {
+            final int read = src.read(buffer);
+            if (read <= 0) {
+                break;
+            }
+            done += read;
+        }
+        size = Math.max(size, position + done);
+        return done;
+    }
+
+    @Override
+    @NotNull
+    public MappedByteBuffer map(@NotNull final FileChannel.MapMode mode, final long position, final long size) throws IOException {
+        // read-write mappings would outgrow this spool's own mapping, they are served by a FileSpool
+        if (mode == FileChannel.MapMode.READ_WRITE) {
+            throw new IllegalArgumentException("read-write mappings must be served by a file spool");
+        }
+        return fileChannel.map(mode, position, size);
+    }
+
+    @Override
+    @NotNull
+    public InputStream newInputStream() {
+        final ByteBuffer content;
+        if (buffer == null) {
+            content = ByteBuffer.allocate(0);
+        } else {
+            content = buffer.duplicate();
+            content.limit((int) size).position(0);
+        }
+        return new InputStream() {
+
+            @Override
+            public int read() {
+                return content.hasRemaining() ? content.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(@NotNull final byte[] b, final int off, final int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!content.hasRemaining()) {
+                    return -1;
+                }
+                final int n = Math.min(len, content.remaining());
+                content.get(b, off, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return content.remaining();
+            }
+
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+        try {
+            fileChannel.close();
+        } finally {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // the mapping is only released on garbage collection, some platforms refuse to delete until then
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+}
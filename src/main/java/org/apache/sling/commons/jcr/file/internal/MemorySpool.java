@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Spool held in chunks taken from a {@link DirectBufferPool}.
+ *
+ * The chunks are owned exclusively, so their position and limit are used
+ * directly instead of creating views.
+ */
+class MemorySpool implements Spool {
+
+    private final DirectBufferPool pool;
+
+    private final long capacity;
+
+    private final int chunkSize;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+
+    private long size;
+
+    MemorySpool(@NotNull final DirectBufferPool pool, final long capacity) {
+        this.pool = pool;
+        this.capacity = capacity;
+        this.chunkSize = pool.getBufferSize();
+    }
+
+    @Override
+    public boolean reserve(final long size) {
+        if (size > capacity) {
+            return false;
+        }
+        while ((long) chunks.size() * chunkSize < size) {
+            final ByteBuffer chunk = pool.acquire();
+            if (chunk == null) {
+                return false;
+            }
+            chunks.add(chunk);
+        }
+        return true;
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public int read(@NotNull final ByteBuffer dst, final long position) {
+        if (position >= size) {
+            return -1;
+        }
+        final int length = (int) Math.min(dst.remaining(), size - position);
+        int done = 0;
+        while (done < length) {
+            final ByteBuffer chunk = chunk(position + done);
+            final int n = Math.min(length - done, chunk.remaining());
+            chunk.limit(chunk.position() + n);
+            dst.put(chunk);
+            done += n;
+        }
+        return length;
+    }
+
+    @Override
+    public int write(@NotNull final ByteBuffer src, final long position) throws IOException {
+        final int length = src.remaining();
+        if (!reserve(position + length)) {
+            throw new IOException("memory spool exhausted");
+        }
+        fillGap(position);
+        final int limit = src.limit();
+        int done = 0;
+        try {
+            while (done < length) {
+                final ByteBuffer chunk = chunk(position + done);
+                final int n = Math.min(length - done, chunk.remaining());
+                src.limit(src.position() + n);
+                chunk.put(src);
+                done += n;
+            }
+        } finally {
+            src.limit(limit);
+        }
+        size = Math.max(size, position + length);
+        return length;
+    }
+
+    @Override
+    public void truncate(final long size) {
+        if (size < this.size) {
+            this.size = size;
+            final int needed = (int) ((size + chunkSize - 1) / chunkSize);
+            while (chunks.size() > needed) {
+                pool.release(chunks.remove(chunks.size() - 1));
+            }
+        }
+    }
+
+    @Override
+    public long transferTo(final long position, final long count, @NotNull final WritableByteChannel target) throws IOException {
+        if (position >= size) {
+            return 0;
+        }
+        final long end = count > size - position ? size : position + count;
+        long done = 0;
+        while (position + done < end) {
+            final ByteBuffer chunk = chunk(position + done);
+            final int n = (int) Math.min(end - position - done, chunk.remaining());
+            chunk.limit(chunk.position() + n);
+            final int written = target.write(chunk);
+            done += written;
+            if (written < n) {
+                break;
+            }
+        }
+        return done;
+    }
+
+    @Override
+    public long transferFrom(@NotNull final ReadableByteChannel src, final long position, final long count) throws IOException {
+        if (position > size) {
+            return 0;
+        }
+        // transfers into the reserved chunks only, the caller reserves what it expects
+        long done = 0;
+        while (done < count && position + done < (long) chunks.size() * chunkSize) {
+            final ByteBuffer chunk = chunk(position + done);
+            final int n = (int) Math.min(count - done, chunk.remaining());
+            chunk.limit(chunk.position() + n);
+            final int read = src.read(chunk);
+            if (read <= 0) {
+                break;
+            }
+            done += read;
+        }
+        size = Math.max(size, position + done);
+        return done;
+    }
+
+    @Override
+    @NotNull
+    public InputStream newInputStream() {
+        return new InputStream() {
+
+            private long position;
+
+            @Override
+            public int read() {
+                final byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(@NotNull final byte[] b, final int off, final int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                final int read = MemorySpool.this.read(ByteBuffer.wrap(b, off, len), position);
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, size - position);
+            }
+
+        };
+    }
+
+    @Override
+    public void close() {
+        for (final ByteBuffer chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+        size = 0;
+    }
+
+    // the chunk holding the given position, with position set and limit at its end
+    private ByteBuffer chunk(final long position) {
+        final ByteBuffer chunk = chunks.get((int) (position / chunkSize));
+        chunk.limit(chunkSize);
+        chunk.position((int) (position % chunkSize));
+        return chunk;
+    }
+
+    // pooled chunks are not zeroed, so a gap created by writing beyond the end is filled explicitly
+    private void fillGap(final long position) {
+        long current = size;
+        while (current < position) {
+            final ByteBuffer chunk = chunk(current);
+            final int n = (int) Math.min(position - current, chunk.remaining());
+            for (int i = 0; i < n; i++) {
+                chunk.put((byte) 0);
+            }
+            current += n;
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.NodeType;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Copies a node with its subtree through the session of the target, skipping protected items.
+ *
+ * Within the same repository values are reused, so binaries are referenced instead of uploaded
+ * again, which content addressed data stores make free. Across repositories binaries are streamed.
+ */
+class NodeCopy {
+
+    private static final String JCR_LAST_MODIFIED = "jcr:lastModified";
+
+    private static final String JCR_LAST_MODIFIED_BY = "jcr:lastModifiedBy";
+
+    private final ValueFactory valueFactory;
+
+    private final boolean sameRepository;
+
+    private final boolean copyAttributes;
+
+    private long binarySize;
+
+    /**
+     * @param copyAttributes whether to keep the last modified time and user, both are set anew otherwise
+     */
+    NodeCopy(@NotNull final Session session, final boolean sameRepository, final boolean copyAttributes) throws RepositoryException {
+        this.valueFactory = session.getValueFactory();
+        this.sameRepository = sameRepository;
+        this.copyAttributes = copyAttributes;
+    }
+
+    @NotNull
+    Node copy(@NotNull final Node source, @NotNull final Node parent, @NotNull final String name) throws RepositoryException, IOException {
+        final Node target = parent.addNode(name, source.getPrimaryNodeType().getName());
+        for (final NodeType mixin : source.getMixinNodeTypes()) {
+            target.addMixin(mixin.getName());
+        }
+        for (final PropertyIterator properties = source.getProperties(); properties.hasNext(); ) {
+            final Property property = properties.nextProperty();
+            final String propertyName = property.getName();
+            if (property.getDefinition().isProtected()) {
+                continue;
+            }
+            if (!copyAttributes && JCR_LAST_MODIFIED_BY.equals(propertyName)) {
+                continue;
+            }
+            if (!copyAttributes && JCR_LAST_MODIFIED.equals(propertyName)) {
+                target.setProperty(propertyName, Calendar.getInstance());
+            } else if (property.isMultiple()) {
+                final Value[] values = property.getValues();
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = value(values[i]);
+                }
+                target.setProperty(propertyName, values, property.getType());
+            } else {
+                target.setProperty(propertyName, value(property.getValue()));
+            }
+        }
+        for (final NodeIterator nodes = source.getNodes(); nodes.hasNext(); ) {
+            final Node child = nodes.nextNode();
+            if (!child.getDefinition().isProtected()) {
+                copy(child, target, child.getName());
+            }
+        }
+        return target;
+    }
+
+    private Value value(final Value value) throws RepositoryException, IOException {
+        if (value.getType() != PropertyType.BINARY) {
+            return value;
+        }
+        final Binary binary = value.getBinary();
+        try {
+            binarySize += binary.getSize();
+            if (sameRepository) {
+                return value;
+            }
+            try (InputStream inputStream = binary.getStream()) {
+                final Binary copy = valueFactory.createBinary(inputStream);
+                try {
+                    return valueFactory.createValue(copy);
+                } finally {
+                    copy.dispose();
+                }
+            }
+        } finally {
+            binary.dispose();
+        }
+    }
+
+    /**
+     * @return the size of the copied binaries
+     */
+    long getBinarySize() {
+        return binarySize;
+    }
+
+}
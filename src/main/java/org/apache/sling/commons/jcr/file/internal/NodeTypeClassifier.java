@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Classifies nodes as files, directories or other by their primary type and mixins.
+ *
+ * A classification is computed once per combination of primary type and mixins from
+ * the type hierarchy and cached; the cache belongs to a configuration revision and is
+ * replaced as a whole on modification.
+ *
+ * Shares the configuration of {@link DefaultJcrFileSupportService}.
+ */
+@Component(
+    service = NodeTypeClassifier.class,
+    configurationPid = "org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService",
+    property = {
+        Constants.SERVICE_DESCRIPTION + "=Apache Sling Commons JCR File Node Type Classifier",
+        Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
+    }
+)
+public class NodeTypeClassifier {
+
+    enum Classification {
+        FILE,
+        DIRECTORY,
+        OTHER
+    }
+
+    private volatile Table table;
+
+    private final Logger logger = LoggerFactory.getLogger(NodeTypeClassifier.class);
+
+    public NodeTypeClassifier() {
+    }
+
+    @Activate
+    public void activate(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        configure(configuration);
+    }
+
+    @Modified
+    public void modified(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        configure(configuration);
+    }
+
+    private void configure(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        table = new Table(configuration.file_node_types(), configuration.directory_node_types());
+        logger.info("classifying file types {} and directory types {}", table.fileTypes, table.directoryTypes);
+    }
+
+    @NotNull
+    Classification classify(@NotNull final Node node) throws RepositoryException {
+        final Table table = this.table;
+        final NodeType primaryType = node.getPrimaryNodeType();
+        final NodeType[] mixinTypes = node.getMixinNodeTypes();
+        final String key = key(primaryType, mixinTypes);
+        Classification classification = table.classifications.get(key);
+        if (classification == null) {
+            classification = table.classify(primaryType, mixinTypes);
+            table.classifications.putIfAbsent(key, classification);
+            logger.debug("{} classified as {}", key, classification);
+        }
+        return classification;
+    }
+
+    boolean isFile(@NotNull final Node node) throws RepositoryException {
+        return classify(node) == Classification.FILE;
+    }
+
+    boolean isDirectory(@NotNull final Node node) throws RepositoryException {
+        return classify(node) == Classification.DIRECTORY;
+    }
+
+    private static String key(final NodeType primaryType, final NodeType[] mixinTypes) {
+        if (mixinTypes.length == 0) {
+            return primaryType.getName();
+        }
+        final String[] names = new String[mixinTypes.length];
+        for (int i = 0; i < mixinTypes.length; i++) {
+            names[i] = mixinTypes[i].getName();
+        }
+        // mixin order is irrelevant for the classification
+        Arrays.sort(names);
+        final StringBuilder key = new StringBuilder(primaryType.getName());
+        for (final String name : names) {
+            key.append('+').append(name);
+        }
+        return key.toString();
+    }
+
+    private static class Table {
+
+        private final Set<String> fileTypes;
+
+        private final Set<String> directoryTypes;
+
+        private final ConcurrentMap<String, Classification> classifications = new ConcurrentHashMap<>();
+
+        Table(final String[] fileTypes, final String[] directoryTypes) {
+            this.fileTypes = toSet(fileTypes);
+            this.directoryTypes = toSet(directoryTypes);
+        }
+
+        // file types take precedence as for a node matching both only its content is meaningful
+        Classification classify(final NodeType primaryType, final NodeType[] mixinTypes) {
+            if (matches(fileTypes, primaryType, mixinTypes)) {
+                return Classification.FILE;
+            }
+            if (matches(directoryTypes, primaryType, mixinTypes)) {
+                return Classification.DIRECTORY;
+            }
+            return Classification.OTHER;
+        }
+
+        private static boolean matches(final Set<String> types, final NodeType primaryType, final NodeType[] mixinTypes) {
+            if (matches(types, primaryType)) {
+                return true;
+            }
+            for (final NodeType mixinType : mixinTypes) {
+                if (matches(types, mixinType)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // same semantics as Node.isNodeType(), which also matches supertypes
+        private static boolean matches(final Set<String> types, final NodeType type) {
+            if (types.contains(type.getName())) {
+                return true;
+            }
+            for (final NodeType supertype : type.getSupertypes()) {
+                if (types.contains(supertype.getName())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static Set<String> toSet(final String[] types) {
+            return types == null ? Collections.emptySet() : new HashSet<>(Arrays.asList(types));
+        }
+
+    }
+
+}
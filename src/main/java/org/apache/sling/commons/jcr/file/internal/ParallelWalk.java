@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walk over the files and directories of a subtree which can be split across threads.
+ *
+ * JCR sessions must not be shared between threads, so every thread taking part reads
+ * with its own session impersonating the user of the file system's session. If
+ * impersonation is not permitted the walk does not split and reads with the file
+ * system's session on the thread consuming the stream, even for a parallel stream.
+ */
+class ParallelWalk implements Closeable {
+
+    private final JcrFileSystem fileSystem;
+
+    private final NodeTypeClassifier classifier;
+
+    private final Map<Thread, Session> sessions = new ConcurrentHashMap<>();
+
+    // whether the walk reads with impersonated sessions and can be split, decided when streaming starts
+    private volatile boolean parallel;
+
+    // children seen and directories expanded, for the size estimates of unexpanded directories
+    private final AtomicLong children = new AtomicLong();
+
+    private final AtomicLong expanded = new AtomicLong();
+
+    private final Logger logger = LoggerFactory.getLogger(ParallelWalk.class);
+
+    ParallelWalk(@NotNull final JcrFileSystem fileSystem, @NotNull final NodeTypeClassifier classifier) {
+        this.fileSystem = fileSystem;
+        this.classifier = classifier;
+    }
+
+    /**
+     * @return a stream of the entries below start (including start), which closes this walk when closed
+     */
+    @NotNull
+    Stream<Entry> stream(@NotNull final Path start) throws IOException {
+        final String path = start.toAbsolutePath().toString();
+        final Entry entry;
+        try {
+            parallel = impersonate();
+            final Node node = session().getNode(path);
+            final NodeTypeClassifier.Classification classification = classifier.classify(node);
+            entry = new Entry(path, JcrFileAttributes.fromNode(node, classification));
+        } catch (PathNotFoundException e) {
+            close();
+            throw new NoSuchFileException(path);
+        } catch (RepositoryException e) {
+            close();
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+        final TreeSpliterator spliterator = new TreeSpliterator();
+        spliterator.entries.add(entry);
+        if (entry.attributes.isDirectory()) {
+            spliterator.directories.add(path);
+        }
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * Opens the session of the calling thread.
+     *
+     * @return whether impersonation is permitted
+     */
+    private boolean impersonate() {
+        final Session session = fileSystem.getSession();
+        try {
+            sessions.put(Thread.currentThread(), session.impersonate(new SimpleCredentials(session.getUserID(), new char[0])));
+            return true;
+        } catch (RepositoryException e) {
+            logger.warn("impersonating {} failed, walking sequentially with the file system's session: {}", session.getUserID(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return whether the stream can be split across threads, valid once streaming started
+     */
+    boolean isParallel() {
+        return parallel;
+    }
+
+    private Session session() throws RepositoryException {
+        final Session session = fileSystem.getSession();
+        if (!parallel) {
+            return session;
+        }
+        final Thread thread = Thread.currentThread();
+        Session local = sessions.get(thread);
+        if (local == null) {
+            local = session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+            sessions.put(thread, local);
+        }
+        return local;
+    }
+
+    @Override
+    public void close() {
+        for (final Session session : sessions.values()) {
+            session.logout();
+        }
+        sessions.clear();
+    }
+
+    static class Entry {
+
+        final String path;
+
+        final JcrFileAttributes attributes;
+
+        Entry(final String path, final JcrFileAttributes attributes) {
+            this.path = path;
+            this.attributes = attributes;
+        }
+
+    }
+
+    /**
+     * Holds the entries ready to be consumed and the directories still to be expanded,
+     * splitting hands over half of the directories (or entries) to a new spliterator.
+     */
+    private class TreeSpliterator implements Spliterator<Entry> {
+
+        private final Deque<Entry> entries = new ArrayDeque<>();
+
+        private final Deque<String> directories = new ArrayDeque<>();
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super Entry> action) {
+            while (entries.isEmpty() && !directories.isEmpty()) {
+                expand(directories.pollFirst());
+            }
+            final Entry entry = entries.pollFirst();
+            if (entry == null) {
+                return false;
+            }
+            action.accept(entry);
+            return true;
+        }
+
+        @Override
+        public Spliterator<Entry> trySplit() {
+            if (!parallel) {
+                return null;
+            }
+            if (directories.size() == 1 && entries.isEmpty()) {
+                expand(directories.pollFirst());
+            }
+            final TreeSpliterator split = new TreeSpliterator();
+            if (directories.size() >= 2) {
+                for (int i = directories.size() / 2; i > 0; i--) {
+                    split.directories.add(directories.pollLast());
+                }
+                return split;
+            }
+            if (entries.size() >= 2) {
+                for (int i = entries.size() / 2; i > 0; i--) {
+                    split.entries.addFirst(entries.pollLast());
+                }
+                return split;
+            }
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            final long expanded = ParallelWalk.this.expanded.get();
+            final long fanOut = expanded == 0 ? 1 : Math.max(1, children.get() / expanded);
+            return entries.size() + directories.size() * fanOut;
+        }
+
+        @Override
+        public int characteristics() {
+            return NONNULL | DISTINCT;
+        }
+
+        private void expand(final String path) {
+            try {
+                final NodeIterator nodes = session().getNode(path).getNodes();
+                long count = 0;
+                while (nodes.hasNext()) {
+                    final Node child = nodes.nextNode();
+                    final NodeTypeClassifier.Classification classification = classifier.classify(child);
+                    if (classification == NodeTypeClassifier.Classification.OTHER) {
+                        continue;
+                    }
+                    final String childPath = child.getPath();
+                    entries.add(new Entry(childPath, JcrFileAttributes.fromNode(child, classification)));
+                    if (classification == NodeTypeClassifier.Classification.DIRECTORY) {
+                        directories.add(childPath);
+                    }
+                    count++;
+                }
+                children.addAndGet(count);
+                expanded.incrementAndGet();
+            } catch (PathNotFoundException e) {
+                // removed while walking
+                logger.debug("{} removed while walking", path);
+            } catch (RepositoryException e) {
+                logger.error(e.getMessage(), e);
+                throw new UncheckedIOException(new IOException(e));
+            }
+        }
+
+    }
+
+}
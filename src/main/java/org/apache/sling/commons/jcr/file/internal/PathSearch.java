@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+
+import org.apache.sling.commons.jcr.file.FileSearchCriteria;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JCR-SQL2 query for files and directories below a base path, narrowed by constraints
+ * the repository indexes can answer. Results are read lazily, classified and checked
+ * against a final filter on the client. Results are read from the repository in pages,
+ * the next page only when the stream is consumed that far.
+ *
+ * Queries see saved content only, transient changes of the file system's session are not found.
+ */
+class PathSearch {
+
+    private static final String SELECTOR = "n";
+
+    private static final int PAGE_SIZE = 100;
+
+    // JCR date format, ISO 8601 with milliseconds
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").withZone(ZoneOffset.UTC);
+
+    private final JcrFileSystem fileSystem;
+
+    private final NodeTypeClassifier classifier;
+
+    private final String base;
+
+    private final List<String> constraints = new ArrayList<>();
+
+    private String nodeType = "nt:base";
+
+    private final Logger logger = LoggerFactory.getLogger(PathSearch.class);
+
+    PathSearch(@NotNull final JcrFileSystem fileSystem, @NotNull final NodeTypeClassifier classifier, @NotNull final String base) {
+        this.fileSystem = fileSystem;
+        this.classifier = classifier;
+        this.base = base;
+    }
+
+    /**
+     * Restricts the name of the nodes with a {@code LIKE} pattern, qualified with its
+     * namespace prefix as in the paths the pattern is derived from.
+     */
+    @NotNull
+    PathSearch name(@NotNull final String likePattern) {
+        constraints.add("NAME(" + SELECTOR + ") LIKE " + literal(likePattern));
+        return this;
+    }
+
+    /**
+     * Compiles the criteria into constraints on {@code jcr:lastModified}, {@code jcr:created}
+     * and the length of {@code jcr:content/jcr:data}, and a selector of the node type.
+     */
+    @NotNull
+    PathSearch criteria(@NotNull final FileSearchCriteria criteria) {
+        if (criteria.getNodeType() != null) {
+            nodeType = criteria.getNodeType();
+        }
+        // files keep the modification time on their content node
+        compare(criteria.getLastModifiedAfter(), ">", "[jcr:lastModified]", "[jcr:content/jcr:lastModified]");
+        compare(criteria.getLastModifiedBefore(), "<", "[jcr:lastModified]", "[jcr:content/jcr:lastModified]");
+        compare(criteria.getCreatedAfter(), ">", "[jcr:created]");
+        compare(criteria.getCreatedBefore(), "<", "[jcr:created]");
+        if (criteria.getMinSize() != null) {
+            constraints.add("LENGTH(" + SELECTOR + ".[jcr:content/jcr:data]) >= " + criteria.getMinSize());
+        }
+        if (criteria.getMaxSize() != null) {
+            constraints.add("LENGTH(" + SELECTOR + ".[jcr:content/jcr:data]) <= " + criteria.getMaxSize());
+        }
+        return this;
+    }
+
+    private void compare(@Nullable final FileTime time, final String operator, final String... properties) {
+        if (time == null) {
+            return;
+        }
+        final String value = "CAST(" + literal(DATE_FORMAT.format(time.toInstant())) + " AS DATE)";
+        final List<String> comparisons = new ArrayList<>();
+        for (final String property : properties) {
+            comparisons.add(SELECTOR + "." + property + " " + operator + " " + value);
+        }
+        constraints.add(comparisons.size() == 1 ? comparisons.get(0) : "(" + String.join(" OR ", comparisons) + ")");
+    }
+
+    @NotNull
+    String toSql() {
+        final StringBuilder sql = new StringBuilder("SELECT * FROM [").append(nodeType).append("] AS ").append(SELECTOR)
+            .append(" WHERE ISDESCENDANTNODE(").append(SELECTOR).append(", [").append(base).append("])");
+        for (final String constraint : constraints) {
+            sql.append(" AND ").append(constraint);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * @param filter final check of the absolute path of every file or directory found
+     * @return the matching files and directories, carrying attribute snapshots
+     */
+    @NotNull
+    Stream<Path> execute(@NotNull final Predicate<String> filter) throws IOException {
+        return execute(filter, null);
+    }
+
+    /**
+     * @param filter final check of the absolute path of every file or directory found
+     * @param attributeFilter final check of the attributes, which are then read with the page
+     * @return the matching files and directories, carrying attribute snapshots
+     */
+    @NotNull
+    Stream<Path> execute(@NotNull final Predicate<String> filter, @Nullable final Predicate<BasicFileAttributes> attributeFilter) throws IOException {
+        final String sql = toSql();
+        logger.debug("searching: {}", sql);
+        final NodeIterator nodes;
+        try {
+            final QueryManager queryManager = fileSystem.getSession().getWorkspace().getQueryManager();
+            nodes = queryManager.createQuery(sql, Query.JCR_SQL2).execute().getNodes();
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+        final AttributeCache attributeCache = fileSystem.getAttributeCache();
+        final Iterator<Path> iterator = new Iterator<Path>() {
+
+            private final Deque<Path> page = new ArrayDeque<>(PAGE_SIZE);
+
+            @Override
+            public boolean hasNext() {
+                if (page.isEmpty()) {
+                    nextPage();
+                }
+                return !page.isEmpty();
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.poll();
+            }
+
+            // reads up to a page of matches, the query results are consumed no further
+            private void nextPage() {
+                try {
+                    final long generation = attributeCache.generation();
+                    while (page.size() < PAGE_SIZE && nodes.hasNext()) {
+                        final Node node = nodes.nextNode();
+                        final NodeTypeClassifier.Classification classification = classifier.classify(node);
+                        if (classification == NodeTypeClassifier.Classification.OTHER) {
+                            continue;
+                        }
+                        final String path = node.getPath();
+                        if (!filter.test(path)) {
+                            continue;
+                        }
+                        if (attributeFilter == null) {
+                            page.add(new JcrPath(fileSystem, path, new AttributeSnapshot(node, classification, generation)));
+                        } else {
+                            final JcrFileAttributes attributes = JcrFileAttributes.fromNode(node, classification);
+                            if (attributeFilter.test(attributes)) {
+                                page.add(new JcrPath(fileSystem, path, new AttributeSnapshot(attributes, generation)));
+                            }
+                        }
+                    }
+                } catch (RepositoryException e) {
+                    logger.error(e.getMessage(), e);
+                    throw new UncheckedIOException(new IOException(e));
+                }
+            }
+
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL | Spliterator.DISTINCT), false);
+    }
+
+    // JCR-SQL2 string literal
+    static String literal(@NotNull final String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+}
@@ -249,6 +249,11 @@ public class PathUtil {
         return path.startsWith("/");
     }
 
+    static boolean exists(final Path path) throws RepositoryException {
+        final JcrFileSystem fileSystem = (JcrFileSystem) path.getFileSystem();
+        return fileSystem.getSession().nodeExists(path.toString());
+    }
+
     static Node toNode(final Path path) throws RepositoryException {
         final JcrFileSystem fileSystem = (JcrFileSystem) path.getFileSystem();
         final Session session = fileSystem.getSession();
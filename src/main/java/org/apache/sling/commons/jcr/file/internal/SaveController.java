@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.jcr.file.SavePolicy;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when the session of a {@link JcrFileSystem} is saved, following its {@link SavePolicy}.
+ *
+ * Writes report the files they changed instead of saving. Pending changes are saved when the
+ * policy's threshold is reached or when they exceed the transient limits, whatever the policy.
+ * There is no timer, an interval elapsed is noticed on the next write.
+ */
+class SaveController {
+
+    private final Session session;
+
+    private final SavePolicy policy;
+
+    private final long operations;
+
+    private final long bytes;
+
+    private final long interval;
+
+    private final long transientOperations;
+
+    private final long transientBytes;
+
+    private long pendingOperations;
+
+    private long pendingBytes;
+
+    private long oldestPending;
+
+    private long saves;
+
+    private final Logger logger = LoggerFactory.getLogger(SaveController.class);
+
+    /**
+     * @param interval            milliseconds
+     * @param transientOperations maximum number of pending written files
+     * @param transientBytes      maximum number of pending written bytes
+     */
+    SaveController(@NotNull final Session session, @NotNull final SavePolicy policy, final long operations, final long bytes, final long interval, final long transientOperations, final long transientBytes) {
+        this.session = session;
+        this.policy = policy;
+        this.operations = Math.max(1, operations);
+        this.bytes = Math.max(1, bytes);
+        this.interval = TimeUnit.MILLISECONDS.toNanos(Math.max(0, interval));
+        this.transientOperations = Math.max(1, transientOperations);
+        this.transientBytes = Math.max(1, transientBytes);
+    }
+
+    /**
+     * Reports a file written into the transient space and saves if due.
+     *
+     * @param bytes the size of the written content
+     */
+    synchronized void written(final long bytes) throws RepositoryException {
+        if (pendingOperations == 0) {
+            oldestPending = System.nanoTime();
+        }
+        pendingOperations++;
+        pendingBytes += bytes;
+        if (pendingOperations >= transientOperations || pendingBytes >= transientBytes) {
+            logger.debug("transient limits reached with {} files, {} bytes pending", pendingOperations, pendingBytes);
+            save();
+        } else if (isDue()) {
+            save();
+        }
+    }
+
+    private boolean isDue() {
+        switch (policy) {
+            case CLOSE:
+                return true;
+            case OPERATIONS:
+                return pendingOperations >= operations;
+            case BYTES:
+                return pendingBytes >= bytes;
+            case INTERVAL:
+                return System.nanoTime() - oldestPending >= interval;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Saves all pending changes.
+     */
+    synchronized void commit() throws RepositoryException {
+        save();
+    }
+
+    // pending changes stay counted when saving fails, they are still in the transient space
+    private void save() throws RepositoryException {
+        session.save();
+        saves++;
+        pendingOperations = 0;
+        pendingBytes = 0;
+    }
+
+    @NotNull
+    SavePolicy getPolicy() {
+        return policy;
+    }
+
+    synchronized long getSaves() {
+        return saves;
+    }
+
+    synchronized long getPendingOperations() {
+        return pendingOperations;
+    }
+
+    synchronized long getPendingBytes() {
+        return pendingBytes;
+    }
+
+}
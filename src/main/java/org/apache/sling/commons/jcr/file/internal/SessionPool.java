@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.jcr.api.SlingRepository;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of service sessions for the read-only file systems of a URI authority.
+ *
+ * Sessions are refreshed (discarding nothing, the file systems are read-only) when checked out
+ * instead of logging in again, the most recently returned first. Sessions idle for longer than the
+ * timeout are logged out on the next checkout. Each session keeps its attribute cache and
+ * observation listener for its whole life.
+ *
+ * A file system must be closed to return its session. Sessions of file systems which are
+ * garbage collected without being closed are reclaimed on the next checkout and while
+ * a checkout waits for a session.
+ *
+ * Paths resolved from URIs use a file system leased for the resolving thread, JCR sessions must
+ * not be shared between threads. The thread keeps its lease for further paths and refreshes the
+ * session when it resolves a path, at most once per {@link #THREAD_REFRESH_INTERVAL}. Closing the
+ * file system returns the session early, otherwise it is reclaimed like any other lease once the
+ * thread is gone and the file system collected.
+ */
+class SessionPool implements Closeable {
+
+    // how often a waiting checkout looks for sessions of collected file systems
+    private static final long RECLAIM_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // how often a thread's file system sees changes saved since
+    static final long THREAD_REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final String authority;
+
+    private final String subServiceName;
+
+    private final Supplier<SlingRepository> repository;
+
+    private final int attributeCacheSize;
+
+    private final long attributeCacheTtl;
+
+    private final long idleTimeout;
+
+    private final long maxWait;
+
+    private final Semaphore permits;
+
+    // most recently returned first
+    private final ConcurrentLinkedDeque<PooledSession> idle = new ConcurrentLinkedDeque<>();
+
+    private final ReferenceQueue<JcrFileSystem> collected = new ReferenceQueue<>();
+
+    // keeps the leases reachable until returned or reclaimed
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong checkouts = new AtomicLong();
+
+    private final AtomicLong logins = new AtomicLong();
+
+    private final AtomicLong reclaimed = new AtomicLong();
+
+    private final LongAdder waitTime = new LongAdder();
+
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    private volatile boolean closed;
+
+    // the file system of the paths resolved from URIs on each thread
+    private final ThreadLocal<ThreadFileSystem> threadFileSystems = new ThreadLocal<>();
+
+    private final Logger logger = LoggerFactory.getLogger(SessionPool.class);
+
+    SessionPool(@NotNull final String authority, @NotNull final String subServiceName, @NotNull final Supplier<SlingRepository> repository, final int size, final long idleTimeout, final long maxWait, final int attributeCacheSize, final long attributeCacheTtl) {
+        this.authority = authority;
+        this.subServiceName = subServiceName;
+        this.repository = repository;
+        this.permits = new Semaphore(Math.max(1, size), true);
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        this.maxWait = TimeUnit.MILLISECONDS.toNanos(maxWait);
+        this.attributeCacheSize = attributeCacheSize;
+        this.attributeCacheTtl = attributeCacheTtl;
+    }
+
+    /**
+     * @return a new read-only file system on a pooled session, which is returned when the file system is closed
+     */
+    @NotNull
+    JcrFileSystem open(@NotNull final JcrFileSystemProvider provider, @NotNull final URI uri) throws IOException {
+        final PooledSession pooled = checkout();
+        final Lease lease = new Lease(pooled);
+        final JcrFileSystem fileSystem;
+        try {
+            fileSystem = new JcrFileSystem(provider, uri, pooled.session, pooled.attributeCache, lease);
+        } catch (RuntimeException e) {
+            checkin(pooled);
+            throw e;
+        }
+        lease.track(fileSystem, collected);
+        leases.add(lease);
+        return fileSystem;
+    }
+
+    /**
+     * @return the read-only file system of the paths resolved from URIs on the calling thread, which must not be used by other threads
+     */
+    @NotNull
+    JcrFileSystem forThread(@NotNull final JcrFileSystemProvider provider, @NotNull final URI uri) throws IOException {
+        if (closed) {
+            throw new IOException("session pool for authority '" + authority + "' is closed");
+        }
+        final long now = System.nanoTime();
+        final ThreadFileSystem current = threadFileSystems.get();
+        if (current != null && current.fileSystem.isOpen()) {
+            if (now - current.refreshed > THREAD_REFRESH_INTERVAL) {
+                try {
+                    current.fileSystem.getSession().refresh(false);
+                } catch (RepositoryException e) {
+                    logger.error(e.getMessage(), e);
+                    throw new IOException(e);
+                }
+                current.refreshed = now;
+            }
+            return current.fileSystem;
+        }
+        final JcrFileSystem fileSystem = open(provider, uri);
+        threadFileSystems.set(new ThreadFileSystem(fileSystem, now));
+        return fileSystem;
+    }
+
+    private PooledSession checkout() throws IOException {
+        if (closed) {
+            throw new IOException("session pool for authority '" + authority + "' is closed");
+        }
+        reclaim();
+        final long start = System.nanoTime();
+        try {
+            long remaining = maxWait;
+            while (!permits.tryAcquire(Math.min(remaining, RECLAIM_INTERVAL), TimeUnit.NANOSECONDS)) {
+                remaining = maxWait - (System.nanoTime() - start);
+                if (remaining <= 0) {
+                    throw new IOException("no pooled session for authority '" + authority + "' available within " + TimeUnit.NANOSECONDS.toMillis(maxWait) + " ms");
+                }
+                reclaim();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            final long waited = System.nanoTime() - start;
+            waitTime.add(waited);
+            maxWaitTime.accumulateAndGet(waited, Math::max);
+        }
+        checkouts.incrementAndGet();
+        try {
+            evictIdle();
+            PooledSession pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                try {
+                    if (pooled.session.isLive()) {
+                        pooled.session.refresh(false);
+                        return pooled;
+                    }
+                } catch (RepositoryException e) {
+                    logger.warn("refreshing pooled session failed", e);
+                }
+                dispose(pooled);
+            }
+            return login();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledSession login() throws IOException {
+        final SlingRepository repository = this.repository.get();
+        if (repository == null) {
+            throw new IOException("no repository available for authority '" + authority + "'");
+        }
+        try {
+            final Session session = repository.loginService(subServiceName, null);
+            logins.incrementAndGet();
+            return new PooledSession(session, new AttributeCache(attributeCacheSize, attributeCacheTtl));
+        } catch (RepositoryException e) {
+            logger.error(e.getMessage(), e);
+            throw new IOException(e);
+        }
+    }
+
+    private void checkin(final PooledSession pooled) {
+        try {
+            if (closed || !pooled.session.isLive()) {
+                dispose(pooled);
+            } else {
+                pooled.lastUsed = System.nanoTime();
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // idle sessions are ordered by last use, the oldest at the tail
+    private void evictIdle() {
+        final long now = System.nanoTime();
+        PooledSession oldest;
+        while ((oldest = idle.peekLast()) != null && now - oldest.lastUsed > idleTimeout) {
+            if (idle.removeLastOccurrence(oldest)) {
+                logger.debug("logging out idle session of authority '{}'", authority);
+                dispose(oldest);
+            }
+        }
+    }
+
+    // returns the sessions of file systems collected without being closed
+    private void reclaim() {
+        Reference<? extends JcrFileSystem> reference;
+        while ((reference = collected.poll()) != null) {
+            final Lease lease = ((Lease.Tracker) reference).lease;
+            if (lease.returned.compareAndSet(false, true)) {
+                leases.remove(lease);
+                reclaimed.incrementAndGet();
+                logger.warn("pooled file system of authority '{}' was not closed, reclaiming its session", authority);
+                checkin(lease.pooled);
+            }
+        }
+    }
+
+    private void dispose(final PooledSession pooled) {
+        try {
+            pooled.attributeCache.clear();
+            if (pooled.attributeCache.isEnabled() && pooled.session.isLive()) {
+                pooled.session.getWorkspace().getObservationManager().removeEventListener(pooled.attributeCache);
+            }
+        } catch (RepositoryException e) {
+            logger.warn(e.getMessage(), e);
+        } finally {
+            pooled.session.logout();
+        }
+    }
+
+    @NotNull
+    String getAuthority() {
+        return authority;
+    }
+
+    long getCheckouts() {
+        return checkouts.get();
+    }
+
+    long getLogins() {
+        return logins.get();
+    }
+
+    long getReclaimed() {
+        return reclaimed.get();
+    }
+
+    int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * @return the total time (in nanoseconds) spent waiting for a session
+     */
+    long getWaitTime() {
+        return waitTime.sum();
+    }
+
+    /**
+     * @return the longest time (in nanoseconds) spent waiting for a session
+     */
+    long getMaxWaitTime() {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * Logs out all idle sessions, sessions in use are logged out when returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        PooledSession pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            dispose(pooled);
+        }
+    }
+
+    private static class PooledSession {
+
+        private final Session session;
+
+        private final AttributeCache attributeCache;
+
+        private volatile long lastUsed;
+
+        private PooledSession(final Session session, final AttributeCache attributeCache) throws RepositoryException {
+            this.session = session;
+            this.attributeCache = attributeCache;
+            if (attributeCache.isEnabled()) {
+                try {
+                    session.getWorkspace().getObservationManager().addEventListener(attributeCache, JcrFileSystem.EVENT_TYPES, "/", true, null, null, false);
+                } catch (RepositoryException e) {
+                    session.logout();
+                    throw e;
+                }
+            }
+        }
+
+    }
+
+    // referenced only by its thread, so the lease is reclaimed when the thread is gone
+    private static class ThreadFileSystem {
+
+        private final JcrFileSystem fileSystem;
+
+        private long refreshed;
+
+        private ThreadFileSystem(final JcrFileSystem fileSystem, final long refreshed) {
+            this.fileSystem = fileSystem;
+            this.refreshed = refreshed;
+        }
+
+    }
+
+    /**
+     * A pooled session lent to a file system.
+     */
+    class Lease {
+
+        private final PooledSession pooled;
+
+        private final AtomicBoolean returned = new AtomicBoolean();
+
+        private Tracker tracker;
+
+        private Lease(final PooledSession pooled) {
+            this.pooled = pooled;
+        }
+
+        private void track(final JcrFileSystem fileSystem, final ReferenceQueue<JcrFileSystem> queue) {
+            tracker = new Tracker(fileSystem, queue, this);
+        }
+
+        /**
+         * Returns the session to the pool, once.
+         */
+        void release() {
+            if (returned.compareAndSet(false, true)) {
+                leases.remove(this);
+                tracker.clear();
+                checkin(pooled);
+            }
+        }
+
+        SessionPool getPool() {
+            return SessionPool.this;
+        }
+
+        private final class Tracker extends PhantomReference<JcrFileSystem> {
+
+            private final Lease lease;
+
+            private Tracker(final JcrFileSystem fileSystem, final ReferenceQueue<JcrFileSystem> queue, final Lease lease) {
+                super(fileSystem, queue);
+                this.lease = lease;
+            }
+
+        }
+
+    }
+
+}
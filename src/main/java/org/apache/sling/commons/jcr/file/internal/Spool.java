@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Local random access copy of a binary which is modified through a {@link JcrFileChannel}.
+ *
+ * All operations are positional, a spool is used by a single channel only.
+ */
+interface Spool extends Closeable {
+
+    /**
+     * Makes sure the spool can hold the given number of bytes.
+     *
+     * @param size the required size
+     * @return {@code false} if this spool cannot grow that large and has to be migrated
+     */
+    boolean reserve(long size) throws IOException;
+
+    long size() throws IOException;
+
+    int read(@NotNull ByteBuffer dst, long position) throws IOException;
+
+    int write(@NotNull ByteBuffer src, long position) throws IOException;
+
+    void truncate(long size) throws IOException;
+
+    long transferTo(long position, long count, @NotNull WritableByteChannel target) throws IOException;
+
+    long transferFrom(@NotNull ReadableByteChannel src, long position, long count) throws IOException;
+
+    /**
+     * @return a stream over the whole content, used to create the new binary
+     */
+    @NotNull
+    InputStream newInputStream() throws IOException;
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.jetbrains.annotations.NotNull;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates spools for {@link JcrFileChannel}s, choosing the backend from the expected size:
+ * pooled direct buffers for small content, a memory-mapped file for medium content and
+ * a plain temporary file for everything larger.
+ *
+ * Shares the configuration of {@link DefaultJcrFileSupportService}.
+ */
+@Component(
+    service = SpoolFactory.class,
+    configurationPid = "org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService",
+    property = {
+        Constants.SERVICE_DESCRIPTION + "=Apache Sling Commons JCR File Spool Factory",
+        Constants.SERVICE_VENDOR + "=The Apache Software Foundation"
+    }
+)
+public class SpoolFactory {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private static final String PREFIX = "jcr-file-";
+
+    private volatile long memoryThreshold;
+
+    private volatile long mappedThreshold;
+
+    private volatile Path directory;
+
+    private volatile DirectBufferPool pool;
+
+    private volatile DirectBufferPool transferPool;
+
+    private final Logger logger = LoggerFactory.getLogger(SpoolFactory.class);
+
+    public SpoolFactory() {
+    }
+
+    @Activate
+    public void activate(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        configure(configuration);
+    }
+
+    @Modified
+    public void modified(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        configure(configuration);
+    }
+
+    private void configure(final DefaultJcrFileSupportServiceConfiguration configuration) {
+        memoryThreshold = configuration.spool_memory_threshold();
+        mappedThreshold = configuration.spool_mapped_threshold();
+        final String directory = configuration.spool_directory();
+        this.directory = directory == null || directory.trim().isEmpty() ? null : Paths.get(directory.trim());
+        // buffers handed out by a previous pool are released into it and collected with it
+        pool = new DirectBufferPool(CHUNK_SIZE, configuration.spool_memory_budget());
+        transferPool = new DirectBufferPool(configuration.transfer_buffer_size(), configuration.transfer_buffer_budget());
+        logger.info("spooling up to {} bytes into memory, up to {} bytes into mapped files, directory: {}", memoryThreshold, mappedThreshold, this.directory);
+    }
+
+    /**
+     * @return the pool of large direct buffers for transfers into file and socket channels
+     */
+    @NotNull
+    DirectBufferPool getTransferPool() {
+        return transferPool;
+    }
+
+    /**
+     * @param size the expected size of the content
+     * @return a new and empty spool
+     */
+    @NotNull
+    Spool newSpool(final long size) throws IOException {
+        if (size <= memoryThreshold) {
+            final MemorySpool spool = new MemorySpool(pool, memoryThreshold);
+            if (spool.reserve(size)) {
+                return spool;
+            }
+            // memory budget exhausted
+            spool.close();
+        }
+        if (size <= mappedThreshold) {
+            return new MappedFileSpool(createFile(), mappedThreshold);
+        }
+        return new FileSpool(createFile());
+    }
+
+    /**
+     * Moves the content of a spool which cannot grow to the given size into a new spool
+     * and closes the old one.
+     */
+    @NotNull
+    Spool migrate(@NotNull final Spool spool, final long size) throws IOException {
+        final Spool target = newSpool(size);
+        if (!target.reserve(size)) {
+            target.close();
+            throw new IOException("spool cannot hold " + size + " bytes");
+        }
+        return copy(spool, target);
+    }
+
+    /**
+     * Migrates the given spool to a file backed one which can be mapped, unless it is already.
+     */
+    @NotNull
+    MappableSpool toMappable(@NotNull final Spool spool) throws IOException {
+        if (spool instanceof MappableSpool) {
+            return (MappableSpool) spool;
+        }
+        final long size = spool.size();
+        final MappableSpool target = size <= mappedThreshold ? new MappedFileSpool(createFile(), mappedThreshold) : new FileSpool(createFile());
+        target.reserve(size);
+        return copy(spool, target);
+    }
+
+    /**
+     * Migrates the given spool to a plain file spool, which never migrates again
+     * and therefore keeps writable mappings valid.
+     */
+    @NotNull
+    FileSpool toFileSpool(@NotNull final Spool spool) throws IOException {
+        if (spool instanceof FileSpool) {
+            return (FileSpool) spool;
+        }
+        return copy(spool, new FileSpool(createFile()));
+    }
+
+    private <S extends Spool> S copy(final Spool spool, final S target) throws IOException {
+        logger.debug("migrating spool to {}", target.getClass().getSimpleName());
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long position = 0;
+            int read;
+            while ((read = spool.read(buffer, position)) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer, position + buffer.position());
+                }
+                position += read;
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            target.close();
+            throw e;
+        }
+        spool.close();
+        return target;
+    }
+
+    Path createFile() throws IOException {
+        final Path directory = this.directory;
+        if (directory == null) {
+            return Files.createTempFile(PREFIX, null);
+        }
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, PREFIX, null);
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import org.apache.sling.commons.jcr.file.DeleteProgressListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes a subtree bottom-up and saves every batch of removed nodes, so the transient
+ * space stays bounded whatever the size of the subtree.
+ *
+ * Subtrees not larger than the subtree size are removed with a single {@link Node#remove()},
+ * their size is counted first, stopping beyond the limit. Children are fetched again after
+ * each chunk instead of iterating while removing.
+ */
+class TreeDelete {
+
+    private final SaveController saveController;
+
+    private final int batchSize;
+
+    private final int subtreeSize;
+
+    private final DeleteProgressListener listener;
+
+    private long start;
+
+    private long deleted;
+
+    private long pending;
+
+    private final Logger logger = LoggerFactory.getLogger(TreeDelete.class);
+
+    TreeDelete(@NotNull final SaveController saveController, final int batchSize, final int subtreeSize, @Nullable final DeleteProgressListener listener) {
+        this.saveController = saveController;
+        this.batchSize = Math.max(1, batchSize);
+        this.subtreeSize = Math.max(0, subtreeSize);
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of deleted nodes
+     */
+    long delete(@NotNull final Node node) throws RepositoryException {
+        start = System.nanoTime();
+        delete(node, true);
+        save();
+        final long elapsed = System.nanoTime() - start;
+        logger.info("deleted {} nodes in {} ms ({} nodes/s)", deleted, elapsed / 1000000, elapsed == 0 ? deleted : deleted * 1000000000L / elapsed);
+        return deleted;
+    }
+
+    private void delete(final Node node, final boolean count) throws RepositoryException {
+        if (count && subtreeSize > 0) {
+            final long size = size(node, subtreeSize);
+            if (size <= subtreeSize) {
+                removed(node, size);
+                return;
+            }
+        }
+        List<Node> children;
+        while (!(children = children(node)).isEmpty()) {
+            for (final Node child : children) {
+                delete(child, true);
+            }
+        }
+        removed(node, 1);
+    }
+
+    private List<Node> children(final Node node) throws RepositoryException {
+        final List<Node> children = new ArrayList<>();
+        final NodeIterator iterator = node.getNodes();
+        while (iterator.hasNext() && children.size() < batchSize) {
+            final Node child = iterator.nextNode();
+            if (!child.getDefinition().isProtected()) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+
+    // the number of nodes of the subtree, or limit + 1 if larger
+    private static long size(final Node node, final long limit) throws RepositoryException {
+        long size = 1;
+        for (final NodeIterator iterator = node.getNodes(); iterator.hasNext() && size <= limit; ) {
+            size += size(iterator.nextNode(), limit - size);
+        }
+        return size;
+    }
+
+    private void removed(final Node node, final long size) throws RepositoryException {
+        node.remove();
+        pending += size;
+        if (pending >= batchSize) {
+            save();
+        }
+    }
+
+    private void save() throws RepositoryException {
+        saveController.commit();
+        deleted += pending;
+        pending = 0;
+        if (listener != null) {
+            listener.progress(deleted, System.nanoTime() - start);
+        }
+    }
+
+}
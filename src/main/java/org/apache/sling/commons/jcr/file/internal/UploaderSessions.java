@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sessions impersonating the user of a {@link JcrFileSystem}'s session, which create binaries on
+ * background threads as the file system's session must stay with the threads calling into it.
+ *
+ * Each uploader session is used by one upload at a time and returned for reuse afterwards.
+ * All of them are logged out when the file system is closed.
+ */
+class UploaderSessions {
+
+    private final Session session;
+
+    // idle first, guarded by itself
+    private final Deque<Session> idle = new ArrayDeque<>();
+
+    private final List<Session> all = new ArrayList<>();
+
+    private volatile boolean impersonate = true;
+
+    private boolean closed;
+
+    private final Logger logger = LoggerFactory.getLogger(UploaderSessions.class);
+
+    UploaderSessions(@NotNull final Session session) {
+        this.session = session;
+    }
+
+    /**
+     * @return an idle uploader session or a new one, {@code null} if the user may not impersonate itself
+     */
+    @Nullable
+    Session checkout() {
+        synchronized (idle) {
+            if (closed) {
+                return null;
+            }
+            final Session uploader = idle.pollFirst();
+            if (uploader != null) {
+                return uploader;
+            }
+        }
+        if (!impersonate) {
+            return null;
+        }
+        final Session uploader;
+        try {
+            uploader = session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+        } catch (RepositoryException e) {
+            logger.warn("impersonating {} failed, creating binaries on the calling thread: {}", session.getUserID(), e.getMessage());
+            impersonate = false;
+            return null;
+        }
+        synchronized (idle) {
+            if (!closed) {
+                all.add(uploader);
+                return uploader;
+            }
+        }
+        uploader.logout();
+        return null;
+    }
+
+    void checkin(@NotNull final Session uploader) {
+        synchronized (idle) {
+            if (!closed) {
+                idle.offerFirst(uploader);
+                return;
+            }
+        }
+        uploader.logout();
+    }
+
+    /**
+     * Logs out all uploader sessions, uploads still running fail.
+     */
+    void close() {
+        final List<Session> sessions;
+        synchronized (idle) {
+            closed = true;
+            sessions = new ArrayList<>(all);
+            all.clear();
+            idle.clear();
+        }
+        for (final Session uploader : sessions) {
+            uploader.logout();
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.jcr.file.WriteBackListener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Asynchronous write-backs of a {@link JcrFileSystem}.
+ *
+ * JCR sessions must not be shared between threads, so the file system's session is only used by
+ * the threads calling into the file system. A write-back uploads the spooled content into a binary
+ * on a shared executor with one of the file system's {@link UploaderSessions}. Setting the binary on the node is left to the calling threads: before the path
+ * is accessed again, on flush, and for completed uploads when the next write-back is submitted.
+ * A write-back superseded by a newer one of the same path is discarded.
+ *
+ * Submitting blocks while the shared permits are exhausted, which bounds the spools being uploaded.
+ * An upload rejected by a shut down executor runs on the submitting thread. If the user may not
+ * impersonate itself the content is written on the submitting thread.
+ */
+class WriteBack {
+
+    private final Executor executor;
+
+    private final Semaphore permits;
+
+    private final WriteBackListener listener;
+
+    private final Session session;
+
+    private final UploaderSessions uploaders;
+
+    // the write-backs not applied yet in submission order, one per path, guarded by itself
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    // uploads running, including those of superseded write-backs
+    private final Set<Pending> uploading = ConcurrentHashMap.newKeySet();
+
+    private final List<IOException> failures = new ArrayList<>();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final Logger logger = LoggerFactory.getLogger(WriteBack.class);
+
+    WriteBack(@NotNull final Session session, @NotNull final UploaderSessions uploaders, @NotNull final Executor executor, @NotNull final Semaphore permits, @Nullable final WriteBackListener listener) {
+        this.session = session;
+        this.uploaders = uploaders;
+        this.executor = executor;
+        this.permits = permits;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the uploaded binary, run on a thread calling into the file system.
+     */
+    @FunctionalInterface
+    interface Task {
+
+        void run(@NotNull Binary binary) throws Exception;
+
+    }
+
+    /**
+     * Schedules the upload of the spool and the task setting the binary, the spool is owned
+     * by the write-back from now on, also if this method throws.
+     */
+    void submit(@NotNull final String path, @NotNull final Spool spool, @NotNull final Task task) throws IOException {
+        final Session uploader;
+        try {
+            applyUploaded();
+            uploader = uploaders.checkout();
+        } catch (IOException | RuntimeException e) {
+            spool.close();
+            throw e;
+        }
+        if (uploader == null) {
+            try (InputStream inputStream = spool.newInputStream()) {
+                task.run(session.getValueFactory().createBinary(inputStream));
+            } catch (Exception e) {
+                logger.error(e.getMessage(), e);
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
+            } finally {
+                spool.close();
+            }
+            return;
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            uploaders.checkin(uploader);
+            spool.close();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        final Pending write = new Pending(path, spool, uploader, task);
+        final Pending previous;
+        synchronized (pending) {
+            previous = pending.remove(path);
+            pending.put(path, write);
+        }
+        if (previous != null) {
+            previous.discard();
+        }
+        uploading.add(write);
+        try {
+            executor.execute(write::upload);
+        } catch (RejectedExecutionException e) {
+            write.upload();
+        }
+    }
+
+    /**
+     * Applies the pending write-back of the given path.
+     */
+    void await(@NotNull final String path) throws IOException {
+        final Pending write;
+        synchronized (pending) {
+            write = pending.get(path);
+        }
+        if (write != null) {
+            apply(write);
+        }
+    }
+
+    /**
+     * Applies the pending write-backs of the given path and its descendants.
+     */
+    void awaitTree(@NotNull final String path) throws IOException {
+        final String prefix = path.endsWith("/") ? path : path + "/";
+        final List<Pending> writes = new ArrayList<>();
+        synchronized (pending) {
+            for (final Pending write : pending.values()) {
+                if (write.path.equals(path) || write.path.startsWith(prefix)) {
+                    writes.add(write);
+                }
+            }
+        }
+        for (final Pending write : writes) {
+            apply(write);
+        }
+    }
+
+    /**
+     * Applies the write-backs submitted so far.
+     *
+     * @throws IOException if write-backs failed since the last flush
+     */
+    void flush() throws IOException {
+        final List<Pending> writes;
+        synchronized (pending) {
+            writes = new ArrayList<>(pending.values());
+        }
+        for (final Pending write : writes) {
+            apply(write);
+        }
+        final List<IOException> failures;
+        synchronized (this.failures) {
+            failures = new ArrayList<>(this.failures);
+            this.failures.clear();
+        }
+        if (!failures.isEmpty()) {
+            final IOException exception = new IOException("write-back of " + failures.size() + " file(s) failed", failures.get(0));
+            for (int i = 1; i < failures.size(); i++) {
+                exception.addSuppressed(failures.get(i));
+            }
+            throw exception;
+        }
+    }
+
+    /**
+     * Waits for the uploads still running, also of discarded write-backs.
+     */
+    void close() throws IOException {
+        for (final Pending write : new ArrayList<>(uploading)) {
+            join(write.uploaded);
+        }
+    }
+
+    // applies the write-backs whose upload is done, without waiting for the others
+    private void applyUploaded() throws IOException {
+        final List<Pending> writes = new ArrayList<>();
+        synchronized (pending) {
+            for (final Pending write : pending.values()) {
+                if (write.uploaded.isDone()) {
+                    writes.add(write);
+                }
+            }
+        }
+        for (final Pending write : writes) {
+            apply(write);
+        }
+    }
+
+    // waits for the upload and sets the binary unless another thread did or the write-back was superseded
+    private void apply(final Pending write) throws IOException {
+        join(write.uploaded);
+        synchronized (pending) {
+            if (!pending.remove(write.path, write)) {
+                return;
+            }
+        }
+        try {
+            if (write.failure != null) {
+                throw write.failure;
+            }
+            write.task.run(write.binary);
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.error("write-back of {} failed", write.path, e);
+            final IOException exception = e instanceof IOException ? (IOException) e : new IOException("write-back of " + write.path + " failed", e);
+            synchronized (failures) {
+                failures.add(exception);
+            }
+            if (listener != null) {
+                try {
+                    listener.failed(write.path, exception);
+                } catch (RuntimeException r) {
+                    logger.warn("write-back listener failed", r);
+                }
+            }
+        }
+    }
+
+    private static void join(final CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    int getPending() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    long getCompleted() {
+        return completed.get();
+    }
+
+    long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * A write-back whose binary is uploaded in the background and set by a calling thread.
+     */
+    private class Pending {
+
+        private final String path;
+
+        private final Spool spool;
+
+        private final Session uploader;
+
+        private final Task task;
+
+        // completes normally, the outcome is kept in binary or failure
+        private final CompletableFuture<Void> uploaded = new CompletableFuture<>();
+
+        private volatile boolean discarded;
+
+        private Binary binary;
+
+        private Exception failure;
+
+        private Pending(final String path, final Spool spool, final Session uploader, final Task task) {
+            this.path = path;
+            this.spool = spool;
+            this.uploader = uploader;
+            this.task = task;
+        }
+
+        // runs on the executor with the uploader session only
+        private void upload() {
+            try {
+                if (!discarded) {
+                    try (InputStream inputStream = spool.newInputStream()) {
+                        binary = uploader.getValueFactory().createBinary(inputStream);
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                try {
+                    spool.close();
+                } catch (IOException e) {
+                    logger.warn("closing spool of {} failed", path, e);
+                }
+                uploaders.checkin(uploader);
+                permits.release();
+                uploading.remove(this);
+                uploaded.complete(null);
+            }
+        }
+
+        // superseded by a newer write-back of the same path, skips the upload if not started yet
+        private void discard() {
+            discarded = true;
+            uploaded.thenRun(() -> {
+                if (binary != null) {
+                    binary.dispose();
+                }
+            });
+        }
+
+    }
+
+}
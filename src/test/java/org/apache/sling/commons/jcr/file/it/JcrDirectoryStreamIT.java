@@ -0,0 +1,307 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.jcr.file.FileSearchCriteria;
+import org.apache.sling.commons.jcr.file.JcrFileSupportService;
+import org.apache.sling.commons.jcr.file.NameGlobFilter;
+import org.apache.sling.commons.jcr.file.SavePolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrDirectoryStreamIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-directory-stream-it";
+
+    private static final List<String> NAMES = Arrays.asList("c.txt", "a.png", "b.txt");
+
+    @Inject
+    private JcrFileSupportService jcrFileSupportService;
+
+    private FileSystem fileSystem;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+        directory = fileSystem.getPath(FOLDER);
+        for (final String name : NAMES) {
+            Files.write(directory.resolve(name), name.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testRepositoryOrder() throws Exception {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            assertThat(names(stream), is(repositoryOrder()));
+        }
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, entry -> entry.getFileName().toString().startsWith("a"))) {
+            assertThat(names(stream), is(Arrays.asList("a.png")));
+        }
+    }
+
+    @Test
+    public void testNameGlobFilter() throws Exception {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, new NameGlobFilter("*.txt"))) {
+            assertThat(names(stream), is(repositoryOrder().stream().filter(name -> name.endsWith(".txt")).collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    public void testEntryAttributes() throws Exception {
+        final List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(entries::add);
+        }
+        // reading attributes by path always consults the attribute cache, entries answered from their snapshot do not
+        final FileStore fileStore = Files.getFileStore(directory);
+        final long hits = (Long) fileStore.getAttribute("attributeCache:hits");
+        final long misses = (Long) fileStore.getAttribute("attributeCache:misses");
+        for (final Path path : entries) {
+            final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            assertThat(attributes.isRegularFile(), is(true));
+            assertThat(attributes.size(), is((long) path.getFileName().toString().length()));
+        }
+        assertThat(fileStore.getAttribute("attributeCache:hits"), is(hits));
+        assertThat(fileStore.getAttribute("attributeCache:misses"), is(misses));
+        // a path resolved again carries no snapshot and is read through the cache
+        final BasicFileAttributes attributes = Files.readAttributes(directory.resolve(entries.get(0).getFileName().toString()), BasicFileAttributes.class);
+        assertThat(attributes.isRegularFile(), is(true));
+        assertThat((Long) fileStore.getAttribute("attributeCache:hits") + (Long) fileStore.getAttribute("attributeCache:misses"), is(hits + misses + 1));
+    }
+
+    @Test
+    public void testEntryAttributesAfterWrites() throws Exception {
+        final List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.forEach(entries::add);
+        }
+        // writes to other paths leave the snapshots of the entries valid
+        final Path other = fileSystem.getPath("/content/jcr-directory-stream-it-other.txt");
+        Files.write(other, "other".getBytes(StandardCharsets.UTF_8));
+        Files.delete(other);
+        final FileStore fileStore = Files.getFileStore(directory);
+        final long hits = (Long) fileStore.getAttribute("attributeCache:hits");
+        final long misses = (Long) fileStore.getAttribute("attributeCache:misses");
+        final Path changed = entries.get(0);
+        for (final Path path : entries.subList(1, entries.size())) {
+            assertThat(Files.readAttributes(path, BasicFileAttributes.class).isRegularFile(), is(true));
+        }
+        assertThat(fileStore.getAttribute("attributeCache:hits"), is(hits));
+        assertThat(fileStore.getAttribute("attributeCache:misses"), is(misses));
+        // a write to an entry invalidates its snapshot
+        Files.write(changed, "changed content".getBytes(StandardCharsets.UTF_8));
+        assertThat(Files.readAttributes(changed, BasicFileAttributes.class).size(), is((long) "changed content".length()));
+    }
+
+    @Test
+    public void testWalk() throws Exception {
+        final List<String> paths;
+        try (Stream<Path> stream = jcrFileSupportService.walk(directory)) {
+            paths = stream.parallel().map(Path::toString).sorted().collect(Collectors.toList());
+        }
+        assertThat(paths, is(Arrays.asList(FOLDER, FOLDER + "/a.png", FOLDER + "/b.txt", FOLDER + "/c.txt")));
+    }
+
+    @Test
+    public void testWalkVisitor() throws Exception {
+        final AtomicInteger files = new AtomicInteger();
+        jcrFileSupportService.walk(directory, (path, attributes) -> {
+            if (attributes.isRegularFile()) {
+                files.incrementAndGet();
+            }
+        });
+        assertThat(files.get(), is(NAMES.size()));
+    }
+
+    @Test
+    public void testWalkPendingChanges() throws Exception {
+        final Map<String, Object> env = new HashMap<>();
+        env.put(Session.class.getName(), userSession("admin"));
+        env.put(SavePolicy.ENV_KEY, SavePolicy.EXPLICIT);
+        try (FileSystem explicit = fileSystemProvider.newFileSystem(new URI("jcr", "walk-pending-it", "/", null), env)) {
+            final Path start = explicit.getPath(FOLDER);
+            Files.write(start.resolve("d.txt"), "d".getBytes(StandardCharsets.UTF_8));
+            final List<String> paths;
+            try (Stream<Path> stream = jcrFileSupportService.walk(start)) {
+                paths = stream.parallel().map(Path::toString).sorted().collect(Collectors.toList());
+            }
+            assertThat(paths.contains(FOLDER + "/d.txt"), is(true));
+            final AtomicInteger files = new AtomicInteger();
+            Files.write(start.resolve("e.txt"), "e".getBytes(StandardCharsets.UTF_8));
+            jcrFileSupportService.walk(start, (path, attributes) -> {
+                if (attributes.isRegularFile()) {
+                    files.incrementAndGet();
+                }
+            });
+            assertThat(files.get(), is(NAMES.size() + 2));
+        }
+    }
+
+    @Test
+    public void testGlob() throws Exception {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "{a,b}.*")) {
+            assertThat(names(stream), is(repositoryOrder().stream().filter(name -> !name.startsWith("c")).collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    public void testSearch() throws Exception {
+        final List<String> paths;
+        try (Stream<Path> stream = jcrFileSupportService.search(directory, "glob:*.txt")) {
+            paths = stream.map(Path::toString).sorted().collect(Collectors.toList());
+        }
+        assertThat(paths, is(Arrays.asList(FOLDER + "/b.txt", FOLDER + "/c.txt")));
+    }
+
+    @Test
+    public void testSearchAbsolute() throws Exception {
+        final List<String> paths;
+        try (Stream<Path> stream = jcrFileSupportService.search(fileSystem.getPath("/content"), "glob:" + FOLDER + "/**.png")) {
+            paths = stream.map(Path::toString).collect(Collectors.toList());
+        }
+        assertThat(paths, is(Arrays.asList(FOLDER + "/a.png")));
+    }
+
+    @Test
+    public void testSearchAbsoluteWithoutPrefix() throws Exception {
+        final Path content = fileSystem.getPath("/content");
+        assertThat(search(content, "regex:" + FOLDER + "/a\\.png|" + FOLDER + "/c\\.txt"), is(Arrays.asList(FOLDER + "/a.png", FOLDER + "/c.txt")));
+        assertThat(search(content, "regex:^" + FOLDER + "/.*\\.txt"), is(Arrays.asList(FOLDER + "/b.txt", FOLDER + "/c.txt")));
+        assertThat(search(content, "glob:{" + FOLDER + "/a.png," + FOLDER + "/b.txt}"), is(Arrays.asList(FOLDER + "/a.png", FOLDER + "/b.txt")));
+    }
+
+    @Test
+    public void testSearchPrefixedName() throws Exception {
+        Files.write(directory.resolve("jcr:d.txt"), new byte[1]);
+        assertThat(search(directory, "glob:jcr:*"), is(Arrays.asList(FOLDER + "/jcr:d.txt")));
+        assertThat(search(directory, "glob:jcr:d.*"), is(Arrays.asList(FOLDER + "/jcr:d.txt")));
+        assertThat(search(directory, "glob:d.*"), is(Collections.emptyList()));
+    }
+
+    @Test
+    public void testSearchCriteria() throws Exception {
+        Files.write(directory.resolve("d.bin"), new byte[100]);
+        final FileSearchCriteria criteria = new FileSearchCriteria()
+            .nodeType("nt:file")
+            .minSize(10)
+            .createdAfter(FileTime.fromMillis(0L));
+        final List<Path> paths;
+        try (Stream<Path> stream = jcrFileSupportService.search(directory, criteria)) {
+            paths = stream.collect(Collectors.toList());
+        }
+        assertThat(paths.size(), is(1));
+        assertThat(paths.get(0).toString(), is(FOLDER + "/d.bin"));
+        assertThat(Files.readAttributes(paths.get(0), BasicFileAttributes.class).size(), is(100L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSecondIterator() throws Exception {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            stream.iterator();
+            stream.iterator();
+        }
+    }
+
+    // children of nt:folder are not orderable, the order of their iteration is up to the repository
+    private List<String> repositoryOrder() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            final List<String> names = new ArrayList<>();
+            for (final NodeIterator nodes = session.getNode(FOLDER).getNodes(); nodes.hasNext(); ) {
+                names.add(nodes.nextNode().getName());
+            }
+            return names;
+        } finally {
+            session.logout();
+        }
+    }
+
+    private List<String> search(final Path start, final String syntaxAndPattern) throws Exception {
+        try (Stream<Path> stream = jcrFileSupportService.search(start, syntaxAndPattern)) {
+            return stream.map(Path::toString).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> names(final DirectoryStream<Path> stream) {
+        final List<String> names = new ArrayList<>();
+        for (final Path path : stream) {
+            names.add(path.getFileName().toString());
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.newConfiguration;
+
+/**
+ * Runs without attribute cache and TTL, so nothing observes changes of other sessions.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileAttributeCacheDisabledIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-attribute-cache-disabled-it";
+
+    private FileSystem fileSystem;
+
+    private Path file;
+
+    @Configuration
+    @Override
+    public Option[] configuration() {
+        return options(
+            composite(super.configuration()),
+            newConfiguration("org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService")
+                .put("attribute.cache.size", 0)
+                .put("attribute.cache.ttl", 0L)
+                .asOption()
+        );
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+        file = fileSystem.getPath(FOLDER, "test.txt");
+        Files.write(file, "test".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testEntryAttributesSeeOtherSessions() throws Exception {
+        final Path entry;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(fileSystem.getPath(FOLDER))) {
+            entry = stream.iterator().next();
+        }
+        assertThat(Files.readAttributes(entry, BasicFileAttributes.class).size(), is(4L));
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER + "/test.txt/jcr:content").setProperty("jcr:data", session.getValueFactory().createBinary(new ByteArrayInputStream(new byte[9])));
+            session.save();
+        } finally {
+            session.logout();
+        }
+        // the snapshot of the entry is not trusted, its attributes are read again
+        assertThat(Files.readAttributes(entry, BasicFileAttributes.class).size(), is(9L));
+    }
+
+}
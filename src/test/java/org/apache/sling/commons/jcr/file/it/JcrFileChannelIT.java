@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.inject.Inject;
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.jcr.file.JcrFileSupportService;
+import org.apache.sling.commons.jcr.file.WriteBackListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileChannelIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-channel-it";
+
+    @Inject
+    private JcrFileSupportService jcrFileSupportService;
+
+    private FileSystem fileSystem;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+        file = fileSystem.getPath(FOLDER, "test.txt");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testWriteNewFile() throws Exception {
+        write("hello world");
+        assertThat(content(), is("hello world"));
+    }
+
+    @Test
+    public void testWriteBack() throws Exception {
+        final Map<String, Object> env = new HashMap<>();
+        env.put(Session.class.getName(), userSession("admin"));
+        env.put(WriteBackListener.ENV_WRITE_BACK, true);
+        try (FileSystem writeBack = fileSystemProvider.newFileSystem(new URI("jcr", "write-back-it", "/", null), env)) {
+            final Path path = writeBack.getPath(file.toString());
+            for (final String content : new String[]{"first", "second", "third"}) {
+                try (FileChannel channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                    channel.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+            // waits for the pending write-backs of the path
+            assertThat(new String(Files.readAllBytes(path), StandardCharsets.UTF_8), is("third"));
+            jcrFileSupportService.flush(writeBack);
+            assertThat(writeBack.getFileStores().iterator().next().getAttribute("writeBack:pending"), is(0));
+        }
+        assertThat(content(), is("third"));
+    }
+
+    @Test
+    public void testWriteBackAppliedOnCallingThread() throws Exception {
+        final Session session = userSession("admin");
+        final List<Thread> threads = new CopyOnWriteArrayList<>();
+        final Map<String, Object> env = new HashMap<>();
+        env.put(Session.class.getName(), session);
+        env.put(WriteBackListener.ENV_WRITE_BACK, true);
+        env.put(WriteBackListener.ENV_KEY, (WriteBackListener) (path, exception) -> threads.add(Thread.currentThread()));
+        try (FileSystem writeBack = fileSystemProvider.newFileSystem(new URI("jcr", "write-back-thread-it", "/", null), env)) {
+            try (FileChannel channel = FileChannel.open(writeBack.getPath(file.toString()), CREATE, WRITE)) {
+                channel.write(ByteBuffer.wrap("content".getBytes(StandardCharsets.UTF_8)));
+            }
+            // the binary is set by the next call into the file system, which fails once the node is gone
+            session.getNode(file.toString()).remove();
+            try {
+                jcrFileSupportService.flush(writeBack);
+                fail("Expected IOException");
+            } catch (IOException e) {
+                // expected
+            }
+            assertThat(threads, is(Collections.singletonList(Thread.currentThread())));
+            assertThat(writeBack.getFileStores().iterator().next().getAttribute("writeBack:failed"), is(1L));
+        }
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        write("hello world");
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(64);
+            channel.read(buffer);
+            assertThat(new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8), is("hello world"));
+        }
+        assertThat(content(), is("hello world"));
+    }
+
+    @Test
+    public void testPartialOverwrite() throws Exception {
+        write("hello world");
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.write(ByteBuffer.wrap("J".getBytes(StandardCharsets.UTF_8)));
+        }
+        assertThat(content(), is("Jello world"));
+    }
+
+    @Test
+    public void testUnchangedContentIsNotWritten() throws Exception {
+        write("hello world");
+        final FileStore fileStore = Files.getFileStore(file);
+        final long saves = (Long) fileStore.getAttribute("saves:count");
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            assertThat(channel.size(), is(11L));
+        }
+        // overwriting with the same bytes leaves the content unchanged as well
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.write(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+        }
+        assertThat(fileStore.getAttribute("saves:count"), is(saves));
+        assertThat(content(), is("hello world"));
+        write("hello world!");
+        assertThat(fileStore.getAttribute("saves:count"), is(saves + 1));
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        write("hello world");
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.truncate(5);
+            assertThat(channel.size(), is(5L));
+        }
+        assertThat(content(), is("hello"));
+    }
+
+    @Test
+    public void testTruncateExisting() throws Exception {
+        write("hello world");
+        try (FileChannel channel = FileChannel.open(file, WRITE, TRUNCATE_EXISTING)) {
+            assertThat(channel.size(), is(0L));
+            channel.write(ByteBuffer.wrap("bye".getBytes(StandardCharsets.UTF_8)));
+        }
+        assertThat(content(), is("bye"));
+    }
+
+    @Test
+    public void testMapReadOnly() throws Exception {
+        write("hello world");
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 6, 5);
+            final byte[] bytes = new byte[5];
+            mapped.get(bytes);
+            assertThat(new String(bytes, StandardCharsets.UTF_8), is("world"));
+        }
+    }
+
+    @Test
+    public void testMapReadWrite() throws Exception {
+        write("hello world");
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, 5);
+            mapped.put("HELLO".getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(content(), is("HELLO world"));
+    }
+
+    @Test
+    public void testLock() throws Exception {
+        write("hello world");
+        final FileLock lock;
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            lock = channel.lock();
+            assertThat(lock.isShared(), is(false));
+            assertThat(lock.isValid(), is(true));
+            channel.write(ByteBuffer.wrap("J".getBytes(StandardCharsets.UTF_8)));
+            lock.release();
+            assertThat(lock.isValid(), is(false));
+            assertThat(channel.tryLock(0, 5, true).isShared(), is(true));
+        }
+        assertThat(lock.isValid(), is(false));
+        assertThat(content(), is("Jello world"));
+    }
+
+    @Test
+    public void testTransferFrom() throws Exception {
+        final byte[] bytes = "hello world".getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE)) {
+            final long transferred = channel.transferFrom(Channels.newChannel(new ByteArrayInputStream(bytes)), 0, Long.MAX_VALUE);
+            assertThat(transferred, is((long) bytes.length));
+            assertThat(channel.size(), is((long) bytes.length));
+        }
+        assertThat(content(), is("hello world"));
+    }
+
+    @Test
+    public void testTransferTo() throws Exception {
+        write("hello world");
+        final Path target = Files.createTempFile("jcr-file-channel-it", null);
+        try {
+            try (FileChannel channel = FileChannel.open(file, READ, WRITE); FileChannel targetChannel = FileChannel.open(target, WRITE)) {
+                assertThat(channel.transferTo(0, channel.size(), targetChannel), is(11L));
+            }
+            assertThat(new String(Files.readAllBytes(target), StandardCharsets.UTF_8), is("hello world"));
+        } finally {
+            Files.delete(target);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTransferToNegativePosition() throws Exception {
+        write("hello world");
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            channel.transferTo(-1, 1, Channels.newChannel(new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    public void testAttributeCache() throws Exception {
+        write("hello world");
+        final FileStore fileStore = Files.getFileStore(file);
+        // the write's own observation events arrive asynchronously and may evict the entry, so retry until they are drained
+        boolean hit = false;
+        for (int i = 0; i < 50 && !hit; i++) {
+            assertThat(Files.size(file), is(11L));
+            final long hits = (Long) fileStore.getAttribute("attributeCache:hits");
+            assertThat(Files.size(file), is(11L));
+            hit = (Long) fileStore.getAttribute("attributeCache:hits") == hits + 1;
+            if (!hit) {
+                Thread.sleep(100);
+            }
+        }
+        assertThat(hit, is(true));
+        // local writes invalidate the cached attributes right away
+        write("bye");
+        assertThat(Files.size(file), is(3L));
+    }
+
+    private void write(final String content) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private String content() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            final Node node = session.getNode(file.toString());
+            final Binary binary = node.getNode("jcr:content").getProperty("jcr:data").getBinary();
+            try (InputStream inputStream = binary.getStream()) {
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+                return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+            } finally {
+                binary.dispose();
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+}
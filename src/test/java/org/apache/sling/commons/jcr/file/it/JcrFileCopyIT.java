@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.jcr.file.JcrFileSupportService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileCopyIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-copy-it";
+
+    @Inject
+    private JcrFileSupportService jcrFileSupportService;
+
+    private FileSystem fileSystem;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+        file = fileSystem.getPath(FOLDER, "test.bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testCopy() throws Exception {
+        final byte[] bytes = "copy".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, bytes);
+        final Path copy = fileSystem.getPath(FOLDER, "copy.bin");
+        Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+        assertThat(Arrays.equals(Files.readAllBytes(copy), bytes), is(true));
+        assertThat(Files.getLastModifiedTime(copy), is(Files.getLastModifiedTime(file)));
+        try {
+            Files.copy(file, copy);
+            fail("Expected FileAlreadyExistsException");
+        } catch (FileAlreadyExistsException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCopyTree() throws Exception {
+        final byte[] bytes = "copy".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, bytes);
+        final Path tree = fileSystem.getPath("/content/jcr-file-copy-it-tree");
+        jcrFileSupportService.copyTree(fileSystem.getPath(FOLDER), tree);
+        try {
+            assertThat(Arrays.equals(Files.readAllBytes(tree.resolve("test.bin")), bytes), is(true));
+        } finally {
+            final Session session = userSession("admin");
+            try {
+                session.getNode(tree.toString()).remove();
+                session.save();
+            } finally {
+                session.logout();
+            }
+        }
+    }
+
+    @Test
+    public void testCopyTreeReplacing() throws Exception {
+        final Path source = fileSystem.getPath(FOLDER, "source");
+        final Path target = fileSystem.getPath(FOLDER, "target");
+        Files.createDirectory(source);
+        Files.write(source.resolve("new.txt"), "new".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectory(target);
+        Files.write(target.resolve("old.txt"), "old".getBytes(StandardCharsets.UTF_8));
+        Files.createDirectory(fileSystem.getPath(FOLDER, "zzz"));
+        jcrFileSupportService.copyTree(source, target, StandardCopyOption.REPLACE_EXISTING);
+        assertThat(new String(Files.readAllBytes(target.resolve("new.txt")), StandardCharsets.UTF_8), is("new"));
+        assertThat(Files.exists(target.resolve("old.txt")), is(false));
+        final Session session = userSession("admin");
+        try {
+            // no copy left behind
+            assertThat(names(session), containsInAnyOrder("source", "target", "zzz"));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testCopyTreeFailureKeepsTarget() throws Exception {
+        Files.write(file, "source".getBytes(StandardCharsets.UTF_8));
+        final Path target = fileSystem.getPath(FOLDER, "target.bin");
+        Files.write(target, "target".getBytes(StandardCharsets.UTF_8));
+        try {
+            // an nt:resource is not allowed below an nt:folder
+            jcrFileSupportService.copyTree(file.resolve("jcr:content"), target, StandardCopyOption.REPLACE_EXISTING);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertThat(new String(Files.readAllBytes(target), StandardCharsets.UTF_8), is("target"));
+        final Session session = userSession("admin");
+        try {
+            assertThat(names(session), containsInAnyOrder("test.bin", "target.bin"));
+        } finally {
+            session.logout();
+        }
+    }
+
+    private static List<String> names(final Session session) throws Exception {
+        final List<String> names = new ArrayList<>();
+        final NodeIterator nodes = session.getNode(FOLDER).getNodes();
+        while (nodes.hasNext()) {
+            names.add(nodes.nextNode().getName());
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import javax.inject.Inject;
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.jcr.file.JcrFileSupportService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileDirectoriesIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-directories-it";
+
+    @Inject
+    private JcrFileSupportService jcrFileSupportService;
+
+    private FileSystem fileSystem;
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testCreateDirectories() throws Exception {
+        final Path tree = fileSystem.getPath("/content/jcr-file-directories-it-tree");
+        final Path directory = tree.resolve("a/b/c");
+        try {
+            Files.createDirectory(directory);
+            fail("Expected NoSuchFileException");
+        } catch (NoSuchFileException e) {
+            // expected
+        }
+        jcrFileSupportService.createDirectories(directory);
+        jcrFileSupportService.createDirectories(directory);
+        Files.createDirectories(tree.resolve("a/d"));
+        assertThat(Files.isDirectory(directory), is(true));
+        assertThat(Files.exists(tree.resolve("a/e")), is(false));
+        assertThat(tree.resolve("a/e").toFile().mkdir(), is(true));
+        assertThat(tree.resolve("a/e").toFile().mkdir(), is(false));
+        jcrFileSupportService.commit(fileSystem);
+        final Session session = userSession("admin");
+        try {
+            assertThat(session.getNode(directory.toString()).isNodeType("nt:folder"), is(true));
+            assertThat(session.nodeExists(tree.resolve("a/d").toString()), is(true));
+        } finally {
+            session.logout();
+        }
+        jcrFileSupportService.deleteTree(tree, null);
+    }
+
+    @Test
+    public void testDirectoriesRemovedElsewhere() throws Exception {
+        final Path directory = fileSystem.getPath(FOLDER, "a/b");
+        jcrFileSupportService.createDirectories(directory);
+        jcrFileSupportService.commit(fileSystem);
+        // removed by another session, the directory cache does not observe it
+        remove(FOLDER + "/a");
+        assertThat(Files.exists(directory), is(false));
+        jcrFileSupportService.createDirectories(directory);
+        assertThat(Files.isDirectory(directory), is(true));
+        jcrFileSupportService.commit(fileSystem);
+        remove(directory.toString());
+        Files.createDirectory(directory);
+        assertThat(Files.isDirectory(directory), is(true));
+        jcrFileSupportService.commit(fileSystem);
+        // replaced by a file in another session
+        remove(directory.toString());
+        final Session session = userSession("admin");
+        try {
+            final Node content = session.getNode(FOLDER + "/a").addNode("b", "nt:file").addNode("jcr:content", "nt:resource");
+            content.setProperty("jcr:data", session.getValueFactory().createBinary(new ByteArrayInputStream(new byte[0])));
+            session.save();
+        } finally {
+            session.logout();
+        }
+        try {
+            jcrFileSupportService.createDirectories(directory);
+            fail("Expected FileAlreadyExistsException");
+        } catch (FileAlreadyExistsException e) {
+            // expected
+        }
+        assertThat(Files.isRegularFile(directory), is(true));
+    }
+
+    private void remove(final String path) throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode(path).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileMoveIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-move-it";
+
+    private FileSystem fileSystem;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+        file = fileSystem.getPath(FOLDER, "test.bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testMoveReplacing() throws Exception {
+        Files.write(file, "old".getBytes(StandardCharsets.UTF_8));
+        final Path temporary = fileSystem.getPath(FOLDER, "test.bin.tmp");
+        Files.write(temporary, "new".getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), is("new"));
+        final Session session = userSession("admin");
+        try {
+            assertThat(session.nodeExists(temporary.toString()), is(false));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testMoveSameFileOnOtherSession() throws Exception {
+        Files.write(file, "same".getBytes(StandardCharsets.UTF_8));
+        try (FileSystem other = otherFileSystem()) {
+            Files.move(file, other.getPath(file.toString()), StandardCopyOption.REPLACE_EXISTING);
+            assertThat(new String(Files.readAllBytes(other.getPath(file.toString())), StandardCharsets.UTF_8), is("same"));
+        }
+        assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), is("same"));
+    }
+
+    @Test
+    public void testAtomicMove() throws Exception {
+        Files.write(file, "atomic".getBytes(StandardCharsets.UTF_8));
+        final Path target = fileSystem.getPath(FOLDER, "atomic.bin");
+        Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        assertThat(Files.exists(file), is(false));
+        assertThat(new String(Files.readAllBytes(target), StandardCharsets.UTF_8), is("atomic"));
+        Files.write(file, "other".getBytes(StandardCharsets.UTF_8));
+        try (FileSystem other = otherFileSystem()) {
+            // replacing between file systems takes two saves
+            Files.move(other.getPath(file.toString()), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            fail("Expected AtomicMoveNotSupportedException");
+        } catch (AtomicMoveNotSupportedException e) {
+            // expected
+        }
+        assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), is("other"));
+        assertThat(new String(Files.readAllBytes(target), StandardCharsets.UTF_8), is("atomic"));
+    }
+
+    @Test
+    public void testMoveDirectory() throws Exception {
+        final Path directory = fileSystem.getPath(FOLDER, "directory");
+        Files.createDirectories(directory.resolve("a"));
+        Files.write(directory.resolve("a/b.txt"), "b".getBytes(StandardCharsets.UTF_8));
+        final Path target = fileSystem.getPath(FOLDER, "moved");
+        Files.move(directory, target);
+        assertThat(Files.exists(directory), is(false));
+        assertThat(new String(Files.readAllBytes(target.resolve("a/b.txt")), StandardCharsets.UTF_8), is("b"));
+        final Session session = userSession("admin");
+        try {
+            assertThat(session.nodeExists(FOLDER + "/moved/a/b.txt"), is(true));
+            assertThat(session.nodeExists(FOLDER + "/directory"), is(false));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testMoveBetweenFileSystems() throws Exception {
+        Files.write(file, "between".getBytes(StandardCharsets.UTF_8));
+        try (FileSystem other = otherFileSystem()) {
+            final Path target = other.getPath(FOLDER, "between.bin");
+            Files.move(file, target);
+            assertThat(new String(Files.readAllBytes(target), StandardCharsets.UTF_8), is("between"));
+        }
+        assertThat(Files.exists(file), is(false));
+        assertThat(new String(Files.readAllBytes(fileSystem.getPath(FOLDER, "between.bin")), StandardCharsets.UTF_8), is("between"));
+    }
+
+    private FileSystem otherFileSystem() throws Exception {
+        final Map<String, Object> env = new HashMap<>();
+        env.put(Session.class.getName(), userSession("admin"));
+        return fileSystemProvider.newFileSystem(new URI("jcr", "move-it", "/", null), env);
+    }
+
+}
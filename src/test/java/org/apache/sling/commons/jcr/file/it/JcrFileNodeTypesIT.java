@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.factoryConfiguration;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.newConfiguration;
+
+/**
+ * Classifies nodes with a mixin configured as directory type, so a file can match both lists.
+ * The folder is a {@code sling:Folder}, which takes non-hierarchy children as well.
+ * New files are created as {@code jcrfileit:file}, a subtype of {@code nt:file}, and new directories as {@code sling:Folder}.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileNodeTypesIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-node-types-it";
+
+    private FileSystem fileSystem;
+
+    @Configuration
+    @Override
+    public Option[] configuration() {
+        return options(
+            composite(super.configuration()),
+            factoryConfiguration("org.apache.sling.jcr.repoinit.RepositoryInitializer")
+                .put("scripts", new String[]{
+                    "register namespace (jcrfileit) http://sling.apache.org/commons/jcr/file/it\n"
+                        + "register nodetypes\n"
+                        + "<<===\n"
+                        + "<< <jcrfileit='http://sling.apache.org/commons/jcr/file/it'>\n"
+                        + "<< [jcrfileit:file] > nt:file\n"
+                        + "===>>"
+                })
+                .asOption(),
+            newConfiguration("org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService")
+                .put("file.node.type", "jcrfileit:file")
+                .put("directory.node.type", "sling:Folder")
+                .put("file.node.types", new String[]{"nt:file"})
+                .put("directory.node.types", new String[]{"rep:root", "nt:folder", "sling:Folder", "mix:title"})
+                .asOption()
+        );
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            final Node folder = session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "sling:Folder");
+            final Node file = folder.addNode("file.txt", "nt:file");
+            file.addNode("jcr:content", "nt:resource").setProperty("jcr:data", session.getValueFactory().createBinary(new ByteArrayInputStream(new byte[3])));
+            final Node titledFile = folder.addNode("titled.txt", "nt:file");
+            titledFile.addMixin("mix:title");
+            titledFile.addNode("jcr:content", "nt:resource").setProperty("jcr:data", session.getValueFactory().createBinary(new ByteArrayInputStream(new byte[5])));
+            folder.addNode("titled", "nt:unstructured").addMixin("mix:title");
+            folder.addNode("unstructured", "nt:unstructured");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testFileType() throws Exception {
+        final BasicFileAttributes attributes = attributes("file.txt");
+        assertThat(attributes.isRegularFile(), is(true));
+        assertThat(attributes.isDirectory(), is(false));
+        assertThat(attributes.size(), is(3L));
+    }
+
+    @Test
+    public void testDirectoryType() throws Exception {
+        final BasicFileAttributes attributes = Files.readAttributes(fileSystem.getPath(FOLDER), BasicFileAttributes.class);
+        assertThat(attributes.isDirectory(), is(true));
+        assertThat(attributes.isRegularFile(), is(false));
+    }
+
+    @Test
+    public void testDirectoryMixin() throws Exception {
+        final BasicFileAttributes attributes = attributes("titled");
+        assertThat(attributes.isDirectory(), is(true));
+        assertThat(attributes.isOther(), is(false));
+    }
+
+    @Test
+    public void testFileTypesTakePrecedence() throws Exception {
+        final BasicFileAttributes attributes = attributes("titled.txt");
+        assertThat(attributes.isRegularFile(), is(true));
+        assertThat(attributes.isDirectory(), is(false));
+        assertThat(attributes.size(), is(5L));
+    }
+
+    @Test
+    public void testOther() throws Exception {
+        final BasicFileAttributes attributes = attributes("unstructured");
+        assertThat(attributes.isOther(), is(true));
+        assertThat(attributes.isRegularFile(), is(false));
+        assertThat(attributes.isDirectory(), is(false));
+    }
+
+    @Test
+    public void testNewNodeTypes() throws Exception {
+        Files.createDirectory(fileSystem.getPath(FOLDER, "created"));
+        Files.write(fileSystem.getPath(FOLDER, "created", "created.txt"), new byte[7]);
+        assertThat(attributes("created/created.txt").size(), is(7L));
+        final Session session = userSession("admin");
+        try {
+            assertThat(session.getNode(FOLDER + "/created").getPrimaryNodeType().getName(), is("sling:Folder"));
+            assertThat(session.getNode(FOLDER + "/created/created.txt").getPrimaryNodeType().getName(), is("jcrfileit:file"));
+        } finally {
+            session.logout();
+        }
+    }
+
+    private BasicFileAttributes attributes(final String name) throws Exception {
+        final Path path = fileSystem.getPath(FOLDER, name);
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+
+}
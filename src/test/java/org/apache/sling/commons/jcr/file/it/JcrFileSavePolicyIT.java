@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.jcr.file.JcrFileSupportService;
+import org.apache.sling.commons.jcr.file.SavePolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileSavePolicyIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-save-policy-it";
+
+    @Inject
+    private JcrFileSupportService jcrFileSupportService;
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testSavePolicyOperations() throws Exception {
+        final Map<String, Object> env = new HashMap<>();
+        env.put(Session.class.getName(), userSession("admin"));
+        env.put(SavePolicy.ENV_KEY, "OPERATIONS");
+        env.put(SavePolicy.ENV_OPERATIONS, "2");
+        final Session observer = userSession("admin");
+        try (FileSystem batching = fileSystemProvider.newFileSystem(new URI("jcr", "save-policy-it", "/", null), env)) {
+            for (final String name : new String[]{"a.txt", "b.txt", "c.txt"}) {
+                Files.write(batching.getPath(FOLDER, name), name.getBytes(StandardCharsets.UTF_8));
+            }
+            observer.refresh(false);
+            assertThat(observer.nodeExists(FOLDER + "/b.txt"), is(true));
+            assertThat(observer.nodeExists(FOLDER + "/c.txt"), is(false));
+            final FileStore fileStore = batching.getFileStores().iterator().next();
+            assertThat(fileStore.getAttribute("saves:pendingOperations"), is(1L));
+            jcrFileSupportService.commit(batching);
+            observer.refresh(false);
+            assertThat(observer.nodeExists(FOLDER + "/c.txt"), is(true));
+        } finally {
+            observer.logout();
+        }
+    }
+
+}
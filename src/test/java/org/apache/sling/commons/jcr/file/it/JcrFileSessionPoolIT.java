@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.factoryConfiguration;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.newConfiguration;
+
+/**
+ * Leases read-only file systems from a pool of two service sessions for the authority {@code pool-it}.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileSessionPoolIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-session-pool-it";
+
+    private static final String SERVICE_USER = "jcr-file-session-pool-it";
+
+    private static final long MAX_WAIT = 1000L;
+
+    private static final long IDLE_TIMEOUT = 1000L;
+
+    @Configuration
+    @Override
+    public Option[] configuration() {
+        return options(
+            composite(super.configuration()),
+            factoryConfiguration("org.apache.sling.jcr.repoinit.RepositoryInitializer")
+                .put("scripts", new String[]{
+                    "create service user " + SERVICE_USER + "\n"
+                        + "create path (sling:Folder) " + FOLDER + "\n"
+                        + "set ACL for " + SERVICE_USER + "\n"
+                        + "    allow jcr:read on " + FOLDER + "\n"
+                        + "end"
+                })
+                .asOption(),
+            factoryConfiguration("org.apache.sling.serviceusermapping.impl.ServiceUserMapperImpl.amended")
+                .put("user.mapping", new String[]{"org.apache.sling.commons.jcr.file:pool-it=[" + SERVICE_USER + "]"})
+                .asOption(),
+            newConfiguration("org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService")
+                .put("session.pools", new String[]{"pool-it=pool-it"})
+                .put("session.pool.size", 2)
+                .put("session.pool.max.wait", MAX_WAIT)
+                .put("session.pool.idle.timeout", IDLE_TIMEOUT)
+                .asOption()
+        );
+    }
+
+    @Test
+    public void testLeaseAndReturn() throws Exception {
+        final long checkouts;
+        final long logins;
+        try (FileSystem fileSystem = open()) {
+            assertThat(fileSystem.isReadOnly(), is(true));
+            assertThat(Files.isDirectory(fileSystem.getPath(FOLDER)), is(true));
+            checkouts = (Long) store(fileSystem).getAttribute("sessionPool:checkouts");
+            logins = (Long) store(fileSystem).getAttribute("sessionPool:logins");
+        }
+        try (FileSystem fileSystem = open()) {
+            assertThat(store(fileSystem).getAttribute("sessionPool:checkouts"), is(checkouts + 1));
+            // the returned session is lent again
+            assertThat(store(fileSystem).getAttribute("sessionPool:logins"), is(logins));
+        }
+    }
+
+    @Test
+    public void testPathsPerThread() throws Exception {
+        final URI uri = new URI("jcr", "pool-it", FOLDER, null);
+        final Path path = fileSystemProvider.getPath(uri);
+        try {
+            assertThat(Files.isDirectory(path), is(true));
+            final FileStore fileStore = store(path.getFileSystem());
+            final long checkouts = (Long) fileStore.getAttribute("sessionPool:checkouts");
+            // more paths than pooled sessions, the thread keeps its lease
+            for (int i = 0; i < 10; i++) {
+                assertThat(fileSystemProvider.getPath(uri).getFileSystem(), sameInstance(path.getFileSystem()));
+            }
+            assertThat(fileStore.getAttribute("sessionPool:checkouts"), is(checkouts));
+            // another thread leases a session of its own
+            final AtomicReference<FileSystem> other = new AtomicReference<>();
+            final Thread thread = new Thread(() -> {
+                try (FileSystem fileSystem = fileSystemProvider.getPath(uri).getFileSystem()) {
+                    other.set(fileSystem);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            thread.start();
+            thread.join();
+            assertThat(other.get(), notNullValue());
+            assertThat(other.get(), not(sameInstance(path.getFileSystem())));
+            assertThat(fileStore.getAttribute("sessionPool:checkouts"), is(checkouts + 1));
+        } finally {
+            path.getFileSystem().close();
+        }
+        // a closed file system is replaced by a new lease
+        final Path next = fileSystemProvider.getPath(uri);
+        try {
+            assertThat(next.getFileSystem(), not(sameInstance(path.getFileSystem())));
+            assertThat(Files.isDirectory(next), is(true));
+        } finally {
+            next.getFileSystem().close();
+        }
+    }
+
+    @Test
+    public void testExhaustionTimeout() throws Exception {
+        try (FileSystem first = open(); FileSystem second = open()) {
+            assertThat(second.isOpen(), is(true));
+            final long start = System.nanoTime();
+            try {
+                open();
+                fail("Expected UncheckedIOException");
+            } catch (UncheckedIOException e) {
+                assertThat(e.getCause(), instanceOf(IOException.class));
+            }
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), greaterThanOrEqualTo(MAX_WAIT));
+            assertThat((Long) store(first).getAttribute("sessionPool:maxWaitTime"), greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(MAX_WAIT)));
+        }
+        // returned sessions are available again
+        open().close();
+    }
+
+    @Test
+    public void testIdleEviction() throws Exception {
+        final long logins;
+        try (FileSystem fileSystem = open()) {
+            logins = (Long) store(fileSystem).getAttribute("sessionPool:logins");
+        }
+        Thread.sleep(IDLE_TIMEOUT + 500L);
+        try (FileSystem fileSystem = open()) {
+            // the idle session was logged out, a new one logged in
+            assertThat(store(fileSystem).getAttribute("sessionPool:logins"), is(logins + 1));
+            assertThat(store(fileSystem).getAttribute("sessionPool:idle"), is(0));
+        }
+    }
+
+    @Test
+    public void testReclaimWhileWaiting() throws Exception {
+        final long reclaimed;
+        try (FileSystem fileSystem = open()) {
+            reclaimed = (Long) store(fileSystem).getAttribute("sessionPool:reclaimed");
+        }
+        // file systems dropped without being closed hold both sessions until collected
+        open();
+        open();
+        System.gc();
+        try (FileSystem fileSystem = open()) {
+            assertThat((Long) store(fileSystem).getAttribute("sessionPool:reclaimed"), greaterThan(reclaimed));
+        }
+    }
+
+    private FileSystem open() throws Exception {
+        return fileSystemProvider.getFileSystem(new URI("jcr", "pool-it", "/", null));
+    }
+
+    private static FileStore store(final FileSystem fileSystem) {
+        return fileSystem.getFileStores().iterator().next();
+    }
+
+}
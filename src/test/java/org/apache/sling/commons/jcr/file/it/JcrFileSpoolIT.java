@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.jcr.Binary;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.newConfiguration;
+
+/**
+ * Writes content below, across and above the memory and mapped file spool thresholds,
+ * which are lowered to keep the content small.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileSpoolIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-spool-it";
+
+    private static final int MEMORY_THRESHOLD = 1024;
+
+    private static final int MAPPED_THRESHOLD = 64 * 1024;
+
+    private FileSystem fileSystem;
+
+    private Path file;
+
+    @Configuration
+    @Override
+    public Option[] configuration() {
+        return options(
+            composite(super.configuration()),
+            newConfiguration("org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService")
+                .put("spool.memory.threshold", (long) MEMORY_THRESHOLD)
+                .put("spool.mapped.threshold", (long) MAPPED_THRESHOLD)
+                .asOption()
+        );
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+        file = fileSystem.getPath(FOLDER, "test.bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testBelowMemoryThreshold() throws Exception {
+        final byte[] bytes = bytes(MEMORY_THRESHOLD / 2);
+        write(bytes);
+        assertThat(Arrays.equals(content(), bytes), is(true));
+    }
+
+    @Test
+    public void testBetweenThresholds() throws Exception {
+        final byte[] bytes = bytes(MAPPED_THRESHOLD / 2);
+        write(bytes);
+        assertThat(Arrays.equals(content(), bytes), is(true));
+    }
+
+    @Test
+    public void testAboveMappedThreshold() throws Exception {
+        final byte[] bytes = bytes(MAPPED_THRESHOLD * 3);
+        write(bytes);
+        assertThat(Arrays.equals(content(), bytes), is(true));
+    }
+
+    @Test
+    public void testGrowingAcrossThresholds() throws Exception {
+        // the spool migrates from memory to a mapped file to a plain file while growing
+        final byte[] bytes = bytes(MAPPED_THRESHOLD * 2);
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            for (int position = 0; position < bytes.length; position += 1000) {
+                channel.write(ByteBuffer.wrap(bytes, position, Math.min(1000, bytes.length - position)));
+            }
+        }
+        assertThat(Arrays.equals(content(), bytes), is(true));
+    }
+
+    @Test
+    public void testOutputStreamAcrossThresholds() throws Exception {
+        final byte[] bytes = bytes(MAPPED_THRESHOLD * 2 + 1);
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            outputStream.write(bytes, 0, 10);
+            for (int position = 10; position < bytes.length; position += 4096) {
+                outputStream.write(bytes, position, Math.min(4096, bytes.length - position));
+            }
+        }
+        assertThat(Arrays.equals(content(), bytes), is(true));
+    }
+
+    @Test
+    public void testPartialOverwriteAboveMappedThreshold() throws Exception {
+        final byte[] bytes = bytes(MAPPED_THRESHOLD * 2);
+        write(bytes);
+        final byte[] patch = new byte[MEMORY_THRESHOLD * 2];
+        Arrays.fill(patch, (byte) 7);
+        final int position = MAPPED_THRESHOLD - MEMORY_THRESHOLD;
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+            channel.write(ByteBuffer.wrap(patch), position);
+        }
+        System.arraycopy(patch, 0, bytes, position, patch.length);
+        assertThat(Arrays.equals(content(), bytes), is(true));
+        assertThat(Arrays.equals(Files.readAllBytes(file), bytes), is(true));
+    }
+
+    private static byte[] bytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private void write(final byte[] bytes) throws Exception {
+        try (FileChannel channel = FileChannel.open(file, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private byte[] content() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            final Binary binary = session.getNode(file.toString()).getNode("jcr:content").getProperty("jcr:data").getBinary();
+            try (InputStream inputStream = binary.getStream()) {
+                final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
+                return outputStream.toByteArray();
+            } finally {
+                binary.dispose();
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.factoryConfiguration;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.newConfiguration;
+
+/**
+ * Pipes output streams into binaries on a single background thread. The user {@value #USER}
+ * may not impersonate itself, its streams write through channels.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileStreamIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-stream-it";
+
+    private static final String USER = "jcr-file-stream-it";
+
+    @Configuration
+    @Override
+    public Option[] configuration() {
+        return options(
+            composite(super.configuration()),
+            factoryConfiguration("org.apache.sling.jcr.repoinit.RepositoryInitializer")
+                .put("scripts", new String[]{
+                    "create user " + USER + " with password " + USER + "\n"
+                        + "set ACL for " + USER + "\n"
+                        + "    allow jcr:read,rep:write on /content\n"
+                        + "end"
+                })
+                .asOption(),
+            newConfiguration("org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService")
+                .put("output.stream.threads", 1)
+                .asOption()
+        );
+    }
+
+    private FileSystem fileSystem;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+        file = fileSystem.getPath(FOLDER, "test.bin");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            session.getNode(FOLDER).remove();
+            session.save();
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        // larger than the pipe to make the writer wait for the binary creation
+        final byte[] bytes = new byte[3 * 1024 * 1024];
+        new Random(42).nextBytes(bytes);
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            outputStream.write(bytes);
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+        }
+        assertThat(Arrays.equals(outputStream.toByteArray(), bytes), is(true));
+    }
+
+    @Test
+    public void testAbandonedStream() throws Exception {
+        OutputStream abandoned = Files.newOutputStream(file);
+        assertThat(isPiped(abandoned), is(true));
+        abandoned.write(new byte[1024]);
+        // holds the only thread until collected
+        abandoned = null;
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            System.gc();
+            try (OutputStream outputStream = Files.newOutputStream(fileSystem.getPath(FOLDER, "next.bin"))) {
+                outputStream.write(1);
+                if (isPiped(outputStream)) {
+                    break;
+                }
+            }
+            if (System.nanoTime() > deadline) {
+                fail("Expected the thread of the abandoned stream to be released");
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    @Test
+    public void testWithoutImpersonation() throws Exception {
+        final byte[] bytes = new byte[256 * 1024];
+        new Random(7).nextBytes(bytes);
+        try (FileSystem userFileSystem = fileSystem(USER, "/")) {
+            final Path path = userFileSystem.getPath(FOLDER, "user.bin");
+            try (OutputStream outputStream = Files.newOutputStream(path)) {
+                assertThat(isPiped(outputStream), is(false));
+                outputStream.write(bytes);
+            }
+            assertThat(Arrays.equals(Files.readAllBytes(path), bytes), is(true));
+        }
+        assertThat(Arrays.equals(Files.readAllBytes(fileSystem.getPath(FOLDER, "user.bin")), bytes), is(true));
+    }
+
+    @Test
+    public void testAppendCreates() throws Exception {
+        Files.write(file, "first".getBytes(StandardCharsets.UTF_8), CREATE, APPEND);
+        Files.write(file, "second".getBytes(StandardCharsets.UTF_8), CREATE, APPEND);
+        assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), is("firstsecond"));
+        try {
+            Files.write(fileSystem.getPath(FOLDER, "missing.bin"), new byte[1], APPEND);
+            fail("Expected NoSuchFileException");
+        } catch (NoSuchFileException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCopyReplacesContent() throws Exception {
+        Files.copy(new ByteArrayInputStream("hello world".getBytes(StandardCharsets.UTF_8)), file);
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            outputStream.write("bye".getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), is("bye"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendTruncateExisting() throws Exception {
+        Files.newOutputStream(file, CREATE, APPEND, TRUNCATE_EXISTING).close();
+    }
+
+    @Test(expected = FileAlreadyExistsException.class)
+    public void testCreateNewExisting() throws Exception {
+        Files.copy(new ByteArrayInputStream("hello world".getBytes(StandardCharsets.UTF_8)), file);
+        Files.newOutputStream(file, CREATE_NEW).close();
+    }
+
+    // streams without a thread or uploader session write through a channel
+    private static boolean isPiped(final OutputStream outputStream) {
+        return outputStream.getClass().getSimpleName().equals("BinaryOutputStream");
+    }
+
+}
@@ -19,7 +19,11 @@
 package org.apache.sling.commons.jcr.file.it;
 
 import java.net.URI;
+import java.nio.file.FileStore;
 import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,6 +39,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.fail;
 
 @RunWith(PaxExam.class)
@@ -63,6 +68,25 @@ public class JcrFileSystemProviderIT extends JcrFileTestSupport {
         assertThat(session.isLive(), is(false));
     }
 
+    @Test
+    public void testCloseTwice() throws Exception {
+        final URI uri = new URI("jcr", "close-it", "/", null);
+        final Map<String, Object> env = new HashMap<>();
+        env.put(Session.class.getName(), userSession("admin"));
+        final FileSystem first = fileSystemProvider.newFileSystem(uri, env);
+        first.close();
+        env.put(Session.class.getName(), userSession("admin"));
+        final FileSystem second = fileSystemProvider.newFileSystem(uri, env);
+        try {
+            // has no effect, the file system registered for the authority afterwards stays
+            first.close();
+            assertThat(first.isOpen(), is(false));
+            assertThat(fileSystemProvider.getFileSystem(uri), sameInstance(second));
+        } finally {
+            second.close();
+        }
+    }
+
     @Test
     public void testNewFileSystem_InvalidScheme() throws Exception {
         final URI uri = new URI("/");
@@ -144,4 +168,82 @@ public class JcrFileSystemProviderIT extends JcrFileTestSupport {
         }
     }
 
+    @Test
+    public void testGetFileSystemByUri() throws Exception {
+        final URI uri = new URI("jcr", "registry-it", "/", null);
+        final Map<String, Object> env = new HashMap<>();
+        env.put(Session.class.getName(), userSession("admin"));
+        final FileSystem fileSystem = fileSystemProvider.newFileSystem(uri, env);
+        try {
+            assertThat(fileSystemProvider.getFileSystem(new URI("jcr", "registry-it", "/content", null)), sameInstance(fileSystem));
+            assertThat(fileSystemProvider.getPath(new URI("jcr", "registry-it", "/content/starter", null)).toString(), is("/content/starter"));
+        } finally {
+            fileSystem.close();
+        }
+        try {
+            fileSystemProvider.getFileSystem(uri);
+            fail("Expected FileSystemNotFoundException");
+        } catch (FileSystemNotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testDuplicateAuthority() throws Exception {
+        final URI uri = new URI("jcr", "duplicate-it", "/", null);
+        final FileSystem fileSystem = fileSystemProvider.newFileSystem(uri, Collections.singletonMap(Session.class.getName(), userSession("admin")));
+        final Session session = userSession("admin");
+        try {
+            fileSystemProvider.newFileSystem(uri, Collections.singletonMap(Session.class.getName(), session));
+            fail("Expected FileSystemAlreadyExistsException");
+        } catch (FileSystemAlreadyExistsException e) {
+            // expected
+        } finally {
+            fileSystem.close();
+        }
+        // the session stays usable and the authority is free again
+        try (FileSystem second = fileSystemProvider.newFileSystem(uri, Collections.singletonMap(Session.class.getName(), session))) {
+            assertThat(fileSystemProvider.getFileSystem(uri), sameInstance(second));
+        }
+    }
+
+    @Test
+    public void testAmbiguousUriWithoutAuthority() throws Exception {
+        final URI uri = new URI("jcr", null, "/", null);
+        final FileSystem first = fileSystemProvider.newFileSystem(uri, Collections.singletonMap(Session.class.getName(), userSession("admin")));
+        final FileSystem second = fileSystemProvider.newFileSystem(uri, Collections.singletonMap(Session.class.getName(), userSession("admin")));
+        try {
+            fileSystemProvider.getFileSystem(uri);
+            fail("Expected FileSystemNotFoundException");
+        } catch (FileSystemNotFoundException e) {
+            // expected
+        } finally {
+            first.close();
+        }
+        try {
+            assertThat(fileSystemProvider.getFileSystem(uri), sameInstance(second));
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    public void testEvictLoggedOutSession() throws Exception {
+        final URI uri = new URI("jcr", "eviction-it", "/", null);
+        final Map<String, Object> env = new HashMap<>();
+        final Session session = userSession("admin");
+        env.put(Session.class.getName(), session);
+        final FileSystem fileSystem = fileSystemProvider.newFileSystem(uri, env);
+        final FileStore fileStore = fileSystem.getFileStores().iterator().next();
+        final long evicted = (Long) fileStore.getAttribute("fileSystems:evicted");
+        session.logout();
+        try {
+            fileSystemProvider.getFileSystem(uri);
+            fail("Expected FileSystemNotFoundException");
+        } catch (FileSystemNotFoundException e) {
+            // expected
+        }
+        assertThat((Long) fileStore.getAttribute("fileSystems:evicted"), is(evicted + 1));
+    }
+
 }
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.jcr.Node;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.jcr.file.JcrFileSupportService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.Configuration;
+import org.ops4j.pax.exam.Option;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.both;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.fail;
+import static org.ops4j.pax.exam.CoreOptions.composite;
+import static org.ops4j.pax.exam.CoreOptions.options;
+import static org.ops4j.pax.exam.cm.ConfigurationAdminOptions.newConfiguration;
+
+/**
+ * Deletes trees in batches of {@value #BATCH_SIZE} nodes, removing subtrees of up to {@value #SUBTREE_SIZE} nodes at once.
+ */
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrFileTreeDeleteIT extends JcrFileTestSupport {
+
+    private static final String FOLDER = "/content/jcr-file-tree-delete-it";
+
+    private static final int BATCH_SIZE = 20;
+
+    private static final int SUBTREE_SIZE = 5;
+
+    @Inject
+    private JcrFileSupportService jcrFileSupportService;
+
+    private FileSystem fileSystem;
+
+    private Path tree;
+
+    @Configuration
+    @Override
+    public Option[] configuration() {
+        return options(
+            composite(super.configuration()),
+            newConfiguration("org.apache.sling.commons.jcr.file.internal.DefaultJcrFileSupportService")
+                .put("delete.batch.size", BATCH_SIZE)
+                .put("delete.subtree.size", SUBTREE_SIZE)
+                .asOption()
+        );
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        final Session session = userSession("admin");
+        try {
+            // 10 folders of 10 folders of 3 folders, 411 nodes
+            final Node root = session.getNode("/content").addNode(FOLDER.substring("/content/".length()), "nt:folder");
+            for (int i = 0; i < 10; i++) {
+                final Node folder = root.addNode("folder" + i, "nt:folder");
+                for (int j = 0; j < 10; j++) {
+                    final Node subfolder = folder.addNode("folder" + j, "nt:folder");
+                    for (int k = 0; k < 3; k++) {
+                        subfolder.addNode("folder" + k, "nt:folder");
+                    }
+                }
+            }
+            session.save();
+        } finally {
+            session.logout();
+        }
+        fileSystem = fileSystem("admin", "/");
+        tree = fileSystem.getPath(FOLDER);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileSystem.close();
+        final Session session = userSession("admin");
+        try {
+            if (session.nodeExists(FOLDER)) {
+                session.getNode(FOLDER).remove();
+                session.save();
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testDeleteTree() throws Exception {
+        try {
+            Files.delete(tree);
+            fail("Expected DirectoryNotEmptyException");
+        } catch (DirectoryNotEmptyException e) {
+            // expected
+        }
+        final List<Long> progress = new ArrayList<>();
+        final long deleted = jcrFileSupportService.deleteTree(tree, (count, elapsed) -> progress.add(count));
+        assertThat(deleted, is(411L));
+        // every batch is saved once it reaches the batch size, overshooting by less than a subtree
+        assertThat(progress.size(), greaterThan(1));
+        for (int i = 0; i < progress.size() - 1; i++) {
+            final long batch = progress.get(i) - (i == 0 ? 0 : progress.get(i - 1));
+            assertThat(batch, is(both(greaterThanOrEqualTo((long) BATCH_SIZE)).and(lessThan((long) (BATCH_SIZE + SUBTREE_SIZE)))));
+        }
+        assertThat(progress.get(progress.size() - 1), is(411L));
+        assertThat(Files.exists(tree), is(false));
+        final Session session = userSession("admin");
+        try {
+            assertThat(session.nodeExists(FOLDER), is(false));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testDeleteSmallSubtreeAtOnce() throws Exception {
+        final Path subtree = tree.resolve("folder0").resolve("folder0");
+        final List<Long> progress = new ArrayList<>();
+        assertThat(jcrFileSupportService.deleteTree(subtree, (count, elapsed) -> progress.add(count)), is(4L));
+        // a subtree not larger than the subtree size takes a single save
+        assertThat(progress, is(Collections.singletonList(4L)));
+        assertThat(Files.exists(subtree), is(false));
+        assertThat(Files.exists(subtree.getParent()), is(true));
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrPathIT extends JcrFileTestSupport {
+
+    private FileSystem fileSystem;
+
+    // /content/starter/sling-logo.png
+    private Path sling_logo_png;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = fileSystem("admin", "/");
+        sling_logo_png = fileSystem.getPath("/content/starter/sling-logo.png");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileSystem.close();
+    }
+
+    @Test
+    public void testNames() {
+        assertThat(sling_logo_png.getNameCount(), is(3));
+        assertThat(sling_logo_png.getFileName().toString(), is("sling-logo.png"));
+        assertThat(sling_logo_png.getName(1).toString(), is("starter"));
+        assertThat(sling_logo_png.subpath(1, 3).toString(), is("starter/sling-logo.png"));
+        assertThat(sling_logo_png.getParent().toString(), is("/content/starter"));
+        assertThat(fileSystem.getPath("/content").getParent().toString(), is("/"));
+        assertThat(fileSystem.getPath("/").getParent(), is(nullValue()));
+        final List<String> names = new ArrayList<>();
+        for (final Path name : sling_logo_png) {
+            names.add(name.toString());
+        }
+        assertThat(names, is(Arrays.asList("content", "starter", "sling-logo.png")));
+    }
+
+    @Test
+    public void testStartsWithEndsWith() {
+        assertThat(sling_logo_png.startsWith("/content/starter"), is(true));
+        assertThat(sling_logo_png.startsWith("/content/star"), is(false));
+        assertThat(sling_logo_png.startsWith("/"), is(true));
+        assertThat(sling_logo_png.endsWith("starter/sling-logo.png"), is(true));
+        assertThat(sling_logo_png.endsWith("logo.png"), is(false));
+    }
+
+    @Test
+    public void testResolveRelativize() {
+        final Path content = fileSystem.getPath("/content");
+        final Path relative = content.relativize(sling_logo_png);
+        assertThat(relative.toString(), is("starter/sling-logo.png"));
+        assertThat(content.resolve(relative), is(sling_logo_png));
+        final Path up = sling_logo_png.relativize(fileSystem.getPath("/content/other"));
+        assertThat(up.toString(), is("../../other"));
+        assertThat(sling_logo_png.resolve(up).toString(), is("/content/other"));
+        assertThat(sling_logo_png.resolveSibling("other.png").toString(), is("/content/starter/other.png"));
+    }
+
+    @Test
+    public void testEqualsAndCompare() {
+        final Path other = fileSystem.getPath("/content/starter/", "sling-logo.png");
+        assertThat(other, is(sling_logo_png));
+        assertThat(other.hashCode(), is(sling_logo_png.hashCode()));
+        assertThat(sling_logo_png.compareTo(fileSystem.getPath("/content/starter")) > 0, is(true));
+        assertThat(sling_logo_png.toUri().toString(), is("jcr:/content/starter/sling-logo.png"));
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.commons.jcr.file.it;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import javax.jcr.Binary;
+import javax.jcr.Session;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.ops4j.pax.exam.junit.PaxExam;
+import org.ops4j.pax.exam.spi.reactors.ExamReactorStrategy;
+import org.ops4j.pax.exam.spi.reactors.PerClass;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+@RunWith(PaxExam.class)
+@ExamReactorStrategy(PerClass.class)
+public class JcrReadOnlyFileChannelIT extends JcrFileTestSupport {
+
+    private FileSystem fileSystem;
+
+    // /content/starter/sling-logo.png
+    private Path sling_logo_png;
+
+    private byte[] expected;
+
+    @Before
+    public void setUp() throws Exception {
+        fileSystem = fileSystem("admin", "/");
+        sling_logo_png = fileSystem.getPath("/content/starter/sling-logo.png");
+        final Session session = userSession("admin");
+        try {
+            final Binary binary = session.getNode("/content/starter/sling-logo.png/jcr:content").getProperty("jcr:data").getBinary();
+            try (InputStream inputStream = binary.getStream()) {
+                expected = toByteArray(inputStream);
+            } finally {
+                binary.dispose();
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fileSystem.close();
+    }
+
+    @Test
+    public void testSize() throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(sling_logo_png)) {
+            assertThat(channel.size(), is((long) expected.length));
+        }
+    }
+
+    @Test
+    public void testSequentialRead() throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (SeekableByteChannel channel = Files.newByteChannel(sling_logo_png)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1000);
+            while (channel.read(buffer) != -1) {
+                outputStream.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            assertThat(channel.position(), is((long) expected.length));
+        }
+        assertThat(Arrays.equals(outputStream.toByteArray(), expected), is(true));
+    }
+
+    @Test
+    public void testPositionedRead() throws IOException {
+        final int position = expected.length / 2;
+        try (SeekableByteChannel channel = Files.newByteChannel(sling_logo_png)) {
+            channel.position(position);
+            final ByteBuffer buffer = ByteBuffer.allocate(16);
+            channel.read(buffer);
+            assertThat(Arrays.equals(buffer.array(), Arrays.copyOfRange(expected, position, position + 16)), is(true));
+        }
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(sling_logo_png)) {
+            channel.write(ByteBuffer.allocate(1));
+            fail("Expected NonWritableChannelException");
+        } catch (NonWritableChannelException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMap() throws IOException {
+        try (FileChannel channel = FileChannel.open(sling_logo_png)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, expected.length);
+            final byte[] bytes = new byte[expected.length];
+            mapped.get(bytes);
+            assertThat(Arrays.equals(bytes, expected), is(true));
+        }
+    }
+
+    @Test(expected = NonWritableChannelException.class)
+    public void testMapReadWrite() throws IOException {
+        try (FileChannel channel = FileChannel.open(sling_logo_png)) {
+            channel.map(FileChannel.MapMode.READ_WRITE, 0, 1);
+        }
+    }
+
+    @Test
+    public void testSharedLock() throws IOException {
+        final FileLock lock;
+        try (FileChannel channel = FileChannel.open(sling_logo_png)) {
+            lock = channel.lock(0, Long.MAX_VALUE, true);
+            assertThat(lock.isShared(), is(true));
+            assertThat(lock.isValid(), is(true));
+            lock.release();
+            assertThat(lock.isValid(), is(false));
+            assertThat(channel.tryLock(0, 1, true).isValid(), is(true));
+        }
+        assertThat(lock.isValid(), is(false));
+    }
+
+    @Test(expected = NonWritableChannelException.class)
+    public void testExclusiveLock() throws IOException {
+        try (FileChannel channel = FileChannel.open(sling_logo_png)) {
+            channel.lock();
+        }
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void testMissingFile() throws IOException {
+        Files.newByteChannel(fileSystem.getPath("/content/starter/missing.png")).close();
+    }
+
+    private static byte[] toByteArray(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        return outputStream.toByteArray();
+    }
+
+}